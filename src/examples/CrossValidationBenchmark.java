@@ -0,0 +1,87 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package examples;
+
+import java.util.Random;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.evaluation.ParallelCrossValidation;
+import weka.classifiers.meta.MultiStageCascading;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.NBTree;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ *
+ * Compares time of 10-fold cross-validation over several seeds with
+ * Evaluation.crossValidateModel and with ParallelCrossValidation,
+ * and checks that both produce the same results.
+ *
+ * Usage: CrossValidationBenchmark dataset [numSeeds] [numThreads]
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class CrossValidationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 1) {
+            System.out.println("Requires path to the dataset as the first argument");
+            return;
+        }
+
+        int numSeeds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Instances dataset = DataSource.read(args[0]);
+        dataset.setClassIndex(dataset.numAttributes() - 1);
+
+        MultiStageCascading msc = new MultiStageCascading();
+        msc.setClassifiers(new Classifier[] {new J48(), new NBTree()});
+        msc.setConfidenceThresholds("0.95,0.97");
+
+        int[] seeds = new int[numSeeds];
+        for (int s = 0; s < numSeeds; s++) {
+            seeds[s] = s + 1;
+        }
+
+        long start = System.nanoTime();
+        Evaluation[] sequential = new Evaluation[numSeeds];
+        for (int s = 0; s < numSeeds; s++) {
+            sequential[s] = new Evaluation(dataset);
+            sequential[s].crossValidateModel(Classifier.makeCopy(msc), dataset, 10, new Random(seeds[s]));
+        }
+        long sequentialTime = System.nanoTime() - start;
+
+        ParallelCrossValidation crossValidation = new ParallelCrossValidation(msc);
+        crossValidation.setNumThreads(numThreads);
+        start = System.nanoTime();
+        Evaluation[] parallel = crossValidation.crossValidate(dataset, seeds);
+        long parallelTime = System.nanoTime() - start;
+
+        for (int s = 0; s < numSeeds; s++) {
+            if (!sequential[s].toSummaryString().equals(parallel[s].toSummaryString())) {
+                System.out.println("Warning: results differ for seed " + seeds[s]);
+            }
+        }
+
+        System.out.println("Seeds: " + numSeeds + ", threads: " + numThreads);
+        System.out.println("Sequential: " + (sequentialTime / 1000000) + " ms");
+        System.out.println("Parallel: " + (parallelTime / 1000000) + " ms");
+        System.out.println("Speedup: " + ((double) sequentialTime / parallelTime));
+        System.out.println(parallel[0].toSummaryString("\nResults for seed " + seeds[0] + "\n\n", false));
+    }
+}
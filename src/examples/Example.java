@@ -29,25 +29,6 @@ import weka.core.converters.ConverterUtils.DataSource;
 import weka.gui.treevisualizer.PlaceNode2;
 import weka.gui.treevisualizer.TreeVisualizer;
 
-
-class Pair<F, S> {
-    private F first;
-    private S second;
-    
-    public Pair(F first, S second) {
-        this.first = first;
-        this.second = second;
-    }
-    
-    public F getFirst() {
-        return first;
-    }
-    
-    public S getSecond() {
-        return second;
-    }
-}
-
 /**
  *
  * Example of how MultiStage Cascading can be used in your code.
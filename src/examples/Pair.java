@@ -0,0 +1,39 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package examples;
+
+/**
+ *
+ * Pair of values.
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+class Pair<F, S> {
+    private F first;
+    private S second;
+    
+    public Pair(F first, S second) {
+        this.first = first;
+        this.second = second;
+    }
+    
+    public F getFirst() {
+        return first;
+    }
+    
+    public S getSecond() {
+        return second;
+    }
+}
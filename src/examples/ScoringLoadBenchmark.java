@@ -0,0 +1,158 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package examples;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.meta.MultiStageCascading;
+import weka.classifiers.meta.serving.CascadeScoringServer;
+import weka.classifiers.meta.serving.CascadeScoringService;
+import weka.classifiers.meta.serving.InProcessScoringClient;
+import weka.classifiers.meta.serving.ScoringClient;
+import weka.classifiers.meta.serving.SocketScoringClient;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ *
+ * Load generator for the scoring service. Several client threads send instances
+ * of the test set to the service as fast as they can, and throughput and
+ * latency percentiles are reported.
+ *
+ * Usage: ScoringLoadBenchmark dataset [clients] [requestsPerClient] [inprocess|socket]
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class ScoringLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 1) {
+            System.out.println("Requires path to the dataset as the first argument");
+            return;
+        }
+
+        final int numClients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        final int requestsPerClient = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        boolean useSocket = args.length > 3 && "socket".equals(args[3]);
+
+        Instances dataset = DataSource.read(args[0]);
+        dataset.setClassIndex(dataset.numAttributes() - 1);
+
+        Pair<Instances, Instances> sets = Example.seprateTestAndTrainingSets(dataset, 0.7);
+        Instances trainingSet = sets.getFirst();
+        final Instances testSet = sets.getSecond();
+
+        MultiStageCascading msc = new MultiStageCascading();
+        msc.setClassifiers(new Classifier[] {new J48(), new NaiveBayes()});
+        msc.setConfidenceThresholds("0.95,0.97");
+        msc.buildClassifier(trainingSet);
+
+        final CascadeScoringService service = new CascadeScoringService(msc);
+        service.start();
+
+        CascadeScoringServer server = null;
+        if (useSocket) {
+            server = new CascadeScoringServer(service, trainingSet);
+            server.start(0);
+        }
+
+        final long[][] latencies = new long[numClients][requestsPerClient];
+        final int[] numCompleted = new int[numClients];
+        final AtomicLong numRejected = new AtomicLong();
+        final AtomicLong numFailed = new AtomicLong();
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final CountDownLatch doneSignal = new CountDownLatch(numClients);
+
+        Thread[] clients = new Thread[numClients];
+        for (int c = 0; c < numClients; c++) {
+            final int clientNumber = c;
+            final ScoringClient client = useSocket
+                    ? new SocketScoringClient("localhost", server.getPort())
+                    : new InProcessScoringClient(service, 100);
+
+            clients[c] = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        startSignal.await();
+                        for (int r = 0; r < requestsPerClient; r++) {
+                            int instance = (clientNumber * requestsPerClient + r) % testSet.numInstances();
+                            long start = System.nanoTime();
+                            try {
+                                client.score(testSet.instance(instance));
+                                latencies[clientNumber][numCompleted[clientNumber]++] = System.nanoTime() - start;
+                            } catch (RejectedExecutionException e) {
+                                numRejected.incrementAndGet();
+                            } catch (Exception e) {
+                                numFailed.incrementAndGet();
+                            }
+                        }
+                        client.close();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        doneSignal.countDown();
+                    }
+                }
+            });
+            clients[c].start();
+        }
+
+        long start = System.nanoTime();
+        startSignal.countDown();
+        doneSignal.await();
+        long wallTime = System.nanoTime() - start;
+
+        if (server != null) {
+            server.stop();
+        }
+        service.shutdown();
+
+        int total = 0;
+        for (int c = 0; c < numClients; c++) {
+            total += numCompleted[c];
+        }
+        long[] allLatencies = new long[total];
+        int position = 0;
+        for (int c = 0; c < numClients; c++) {
+            System.arraycopy(latencies[c], 0, allLatencies, position, numCompleted[c]);
+            position += numCompleted[c];
+        }
+        Arrays.sort(allLatencies);
+
+        System.out.println("Mode: " + (useSocket ? "socket" : "in-process") + ", clients: " + numClients);
+        System.out.println("Completed: " + total + ", rejected: " + numRejected.get()
+                + ", failed: " + numFailed.get() + ", shed: " + service.getNumShed());
+        System.out.println("Batches: " + service.getNumBatches() + ", average batch size: "
+                + (service.getNumBatches() == 0 ? 0 : (double) total / service.getNumBatches()));
+        System.out.println("Throughput: " + (total * 1e9 / wallTime) + " instances/s");
+        System.out.println("p50: " + percentile(allLatencies, 0.50) / 1000 + " us, p99: "
+                + percentile(allLatencies, 0.99) / 1000 + " us");
+    }
+
+    private static long percentile(long[] sortedValues, double percentile) {
+        if (sortedValues.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)];
+    }
+}
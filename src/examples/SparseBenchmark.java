@@ -0,0 +1,156 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package examples;
+
+import java.util.Arrays;
+import java.util.Random;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayesMultinomial;
+import weka.classifiers.lazy.IBk;
+import weka.classifiers.meta.MultiStageCascading;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.neighboursearch.LinearNNSearch;
+
+/**
+ *
+ * Benchmark of MultiStage Cascading on a synthetic bag-of-words dataset.
+ * Compares memory and time of the kNN classifier with linear search and with
+ * inverted index search on the same sparse instances. Confidence threshold 1.0
+ * sends every test instance to the kNN classifier.
+ *
+ * Usage: SparseBenchmark [numAttributes] [numInstances] [numValuesPerInstance]
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class SparseBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numAttributes = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int numInstances = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int numValues = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        System.out.println("Attributes: " + numAttributes + ", instances: " + numInstances
+                + ", non-zero values per instance: " + numValues);
+
+        Instances train = generateDataset(numAttributes, numInstances, numValues, new Random(1));
+        Instances test = generateDataset(numAttributes, numInstances / 4, numValues, new Random(2));
+
+        // Explicitly set last classifier is not switched to inverted index search
+        IBk linearKNN = new IBk();
+        linearKNN.setNearestNeighbourSearchAlgorithm(new LinearNNSearch());
+        MultiStageCascading linearCascade = createCascade();
+        linearCascade.setLastClassifier(linearKNN);
+        Result linear = run(linearCascade, train, test);
+        linearCascade = null;
+        print("Linear search", linear);
+
+        // Default last classifier uses inverted index search for sparse data
+        Result invertedIndex = run(createCascade(), train, test);
+        print("Inverted index search", invertedIndex);
+
+        if (!Arrays.equals(linear.predictions, invertedIndex.predictions)) {
+            System.out.println("Warning: predictions of linear and inverted index search differ");
+        }
+    }
+
+    private static MultiStageCascading createCascade() throws Exception {
+        MultiStageCascading cascade = new MultiStageCascading();
+        cascade.setClassifiers(new Classifier[] {new NaiveBayesMultinomial()});
+        // Classifier is never confident enough, so all instances are classified by the kNN
+        cascade.setConfidenceThresholds("1.0");
+        return cascade;
+    }
+
+    private static Result run(MultiStageCascading cascade, Instances train, Instances test) throws Exception {
+        Result result = new Result();
+
+        // Datasets are referenced during the whole benchmark, so only the model is measured
+        long memoryBefore = usedMemory();
+        long start = System.nanoTime();
+        cascade.buildClassifier(train);
+        result.buildTime = System.nanoTime() - start;
+        result.memory = usedMemory() - memoryBefore;
+
+        result.predictions = new double[test.numInstances()];
+        start = System.nanoTime();
+        for (int i = 0; i < test.numInstances(); i++) {
+            result.predictions[i] = cascade.classifyInstance(test.instance(i));
+        }
+        result.classificationTime = System.nanoTime() - start;
+
+        return result;
+    }
+
+    private static void print(String name, Result result) {
+        System.out.println(name + ": build " + (result.buildTime / 1000000) + " ms, classification "
+                + (result.classificationTime / 1000000) + " ms, model memory "
+                + (result.memory / (1024 * 1024)) + " MB");
+    }
+
+    /**
+     * Generate a two class dataset where each class prefers its own half of the vocabulary.
+     */
+    private static Instances generateDataset(int numAttributes, int numInstances, int numValues, Random random) {
+        FastVector attributes = new FastVector(numAttributes + 1);
+        for (int i = 0; i < numAttributes; i++) {
+            attributes.addElement(new Attribute("word" + i));
+        }
+        FastVector classValues = new FastVector(2);
+        classValues.addElement("first");
+        classValues.addElement("second");
+        attributes.addElement(new Attribute("class", classValues));
+
+        Instances instances = new Instances("sparse", attributes, numInstances);
+        instances.setClassIndex(numAttributes);
+
+        int halfVocabulary = numAttributes / 2;
+        for (int i = 0; i < numInstances; i++) {
+            int classValue = random.nextInt(2);
+
+            double[] row = new double[numAttributes + 1];
+            for (int v = 0; v < numValues; v++) {
+                int word = random.nextInt(numAttributes);
+                // Most of the words are taken from the half of the vocabulary of the class
+                if (random.nextDouble() < 0.7) {
+                    word = classValue * halfVocabulary + random.nextInt(halfVocabulary);
+                }
+                row[word] += 1;
+            }
+            row[numAttributes] = classValue;
+
+            instances.add(new SparseInstance(1, row));
+        }
+
+        return instances;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class Result {
+        long buildTime;
+        long classificationTime;
+        long memory;
+        double[] predictions;
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.evaluation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Randomizable;
+
+/**
+ * Cross-validation that builds classifiers of all folds, and of several
+ * seeds, concurrently. All folds share one read-only copy of the data. Folds
+ * are index views into it, and each fold task copies only its own
+ * training instances. Each task trains its own copy of the classifier,
+ * so it also has its own random number generator.
+ * <p/>
+ * Folds are produced by the same random number sequence as
+ * Evaluation.crossValidateModel. Predictions are recorded in the same
+ * order as well, so for a given seed the result is equal to the
+ * result of Evaluation.crossValidateModel with new Random(seed). The seed
+ * of a Randomizable classifier is not changed, unless it is requested to
+ * be set to the seed of each run.
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class ParallelCrossValidation {
+
+    // Classifier that is copied for each fold
+    private final Classifier classifier;
+    // Number of folds
+    private int numFolds = 10;
+    // Number of threads used to build classifiers
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    // Flag that shows that seed of a Randomizable classifier is set to the seed of each run
+    private boolean setClassifierSeed = false;
+
+    /**
+     * Create a cross-validation driver.
+     * @param classifier - classifier to evaluate. It is not modified, only its copies are built.
+     */
+    public ParallelCrossValidation(Classifier classifier) {
+        this.classifier = classifier;
+    }
+
+    /**
+     * Cross-validate the classifier with one seed.
+     * @param data - instances to cross-validate on
+     * @param seed - seed of the random number generator
+     * @return evaluation of the classifier
+     * @throws Exception if a classifier could not be built or evaluated
+     */
+    public Evaluation crossValidate(Instances data, int seed) throws Exception {
+        return crossValidate(data, new int[] {seed})[0];
+    }
+
+    /**
+     * Cross-validate the classifier with several seeds. Folds of all seeds are built concurrently.
+     * @param data - instances to cross-validate on
+     * @param seeds - seeds of the random number generator, one for each run
+     * @return evaluations of the classifier in the same order as seeds
+     * @throws Exception if a classifier could not be built or evaluated
+     */
+    public Evaluation[] crossValidate(Instances data, int[] seeds) throws Exception {
+        if (this.numFolds < 2) {
+            throw new IllegalArgumentException("Number of folds must be greater than 1");
+        }
+        if (data.numInstances() < this.numFolds) {
+            throw new IllegalArgumentException("Can't have more folds than instances!");
+        }
+
+        // Read-only data shared by all folds
+        final Instances dataset = new Instances(data);
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.numThreads);
+        try {
+            List<Fold[]> runs = new ArrayList<Fold[]>(seeds.length);
+            for (int seed : seeds) {
+                runs.add(submitFolds(dataset, seed, executor));
+            }
+
+            Evaluation[] evaluations = new Evaluation[seeds.length];
+            for (int s = 0; s < seeds.length; s++) {
+                evaluations[s] = evaluate(dataset, runs.get(s));
+            }
+            return evaluations;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Divide instances into folds in the same way as Evaluation.crossValidateModel
+     * does and submit building of classifiers for all folds.
+     * @param dataset - shared instances
+     * @param seed - seed of the random number generator
+     * @param executor - executor to build classifiers
+     * @return folds with future predictions
+     * @throws Exception if the classifier could not be copied
+     */
+    private Fold[] submitFolds(Instances dataset, int seed, ExecutorService executor) throws Exception {
+        Random random = new Random(seed);
+
+        int[] order = new int[dataset.numInstances()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        randomize(order, random);
+        if (dataset.classAttribute().isNominal()) {
+            order = stratify(order, dataset);
+        }
+
+        Fold[] folds = new Fold[this.numFolds];
+        for (int f = 0; f < this.numFolds; f++) {
+            // Folds are generated sequentially, so they consume random numbers in the same order as Weka
+            Fold fold = new Fold(trainIndices(order, f, random), testIndices(order, f));
+
+            Classifier copiedClassifier = Classifier.makeCopy(this.classifier);
+            if (this.setClassifierSeed && copiedClassifier instanceof Randomizable) {
+                ((Randomizable) copiedClassifier).setSeed(seed);
+            }
+
+            fold.predictions = executor.submit(new FoldTask(dataset, fold, copiedClassifier));
+            folds[f] = fold;
+        }
+
+        return folds;
+    }
+
+    /**
+     * Record predictions of all folds of a run in the order of folds.
+     * @param dataset - shared instances
+     * @param folds - folds of the run
+     * @return evaluation of the run
+     * @throws Exception if a classifier could not be built or evaluated
+     */
+    private Evaluation evaluate(Instances dataset, Fold[] folds) throws Exception {
+        Evaluation evaluation = new Evaluation(dataset);
+
+        for (Fold fold : folds) {
+            double[][] distributions;
+            try {
+                distributions = fold.predictions.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+
+            evaluation.setPriors(classPriors(dataset, fold.trainIndices));
+            for (int i = 0; i < fold.testIndices.length; i++) {
+                evaluation.evaluateModelOnceAndRecordPrediction(distributions[i], dataset.instance(fold.testIndices[i]));
+            }
+        }
+
+        return evaluation;
+    }
+
+    /**
+     * Shuffle indices in the same way as Instances.randomize does.
+     * @param indices - indices to shuffle
+     * @param random - random number generator
+     */
+    private static void randomize(int[] indices, Random random) {
+        for (int j = indices.length - 1; j > 0; j--) {
+            swap(indices, j, random.nextInt(j + 1));
+        }
+    }
+
+    /**
+     * Reorder indices in the same way as Instances.stratify does.
+     * @param indices - indices to reorder
+     * @param dataset - instances the indices refer to
+     * @return stratified indices
+     */
+    private int[] stratify(int[] indices, Instances dataset) {
+        // Group instances of the same class
+        int index = 1;
+        while (index < indices.length) {
+            Instance instance1 = dataset.instance(indices[index - 1]);
+            for (int j = index; j < indices.length; j++) {
+                Instance instance2 = dataset.instance(indices[j]);
+                if ((instance1.classValue() == instance2.classValue())
+                        || (instance1.classIsMissing() && instance2.classIsMissing())) {
+                    swap(indices, index, j);
+                    index++;
+                }
+            }
+            index++;
+        }
+
+        // Take every numFolds-th instance
+        int[] stratified = new int[indices.length];
+        int position = 0;
+        int start = 0;
+        while (position < indices.length) {
+            for (int j = start; j < indices.length; j += this.numFolds) {
+                stratified[position++] = indices[j];
+            }
+            start++;
+        }
+
+        return stratified;
+    }
+
+    /**
+     * Get indices of training instances of a fold in the same order as Instances.trainCV returns them.
+     * @param order - indices of all instances
+     * @param fold - number of the fold
+     * @param random - random number generator
+     * @return indices of training instances
+     */
+    private int[] trainIndices(int[] order, int fold, Random random) {
+        int first = firstTestIndex(order.length, fold);
+        int numTest = numTestInstances(order.length, fold);
+
+        int[] train = new int[order.length - numTest];
+        System.arraycopy(order, 0, train, 0, first);
+        System.arraycopy(order, first + numTest, train, first, order.length - first - numTest);
+        randomize(train, random);
+
+        return train;
+    }
+
+    /**
+     * Get indices of test instances of a fold in the same order as Instances.testCV returns them.
+     * @param order - indices of all instances
+     * @param fold - number of the fold
+     * @return indices of test instances
+     */
+    private int[] testIndices(int[] order, int fold) {
+        int[] test = new int[numTestInstances(order.length, fold)];
+        System.arraycopy(order, firstTestIndex(order.length, fold), test, 0, test.length);
+        return test;
+    }
+
+    private int numTestInstances(int numInstances, int fold) {
+        int numTest = numInstances / this.numFolds;
+        if (fold < numInstances % this.numFolds) {
+            numTest++;
+        }
+        return numTest;
+    }
+
+    private int firstTestIndex(int numInstances, int fold) {
+        int offset = fold < numInstances % this.numFolds ? fold : numInstances % this.numFolds;
+        return fold * (numInstances / this.numFolds) + offset;
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int value = array[i];
+        array[i] = array[j];
+        array[j] = value;
+    }
+
+    /**
+     * Copy instances selected by indices.
+     * @param dataset - shared instances
+     * @param indices - indices of instances to copy
+     * @return selected instances
+     */
+    private static Instances select(Instances dataset, int[] indices) {
+        Instances selected = new Instances(dataset, indices.length);
+        for (int index : indices) {
+            selected.add(dataset.instance(index));
+        }
+        return selected;
+    }
+
+    /**
+     * Get class values of training instances that Evaluation.setPriors uses.
+     * For a nominal class, training instances of each class are merged into one
+     * instance weighted by their total weight, so training instances are not copied.
+     * @param dataset - shared instances
+     * @param trainIndices - indices of training instances
+     * @return instances with the class attribute only
+     */
+    private static Instances classPriors(Instances dataset, int[] trainIndices) {
+        FastVector attributes = new FastVector(1);
+        attributes.addElement(dataset.classAttribute().copy());
+        Instances priors = new Instances(dataset.relationName(), attributes, 0);
+        priors.setClassIndex(0);
+
+        if (dataset.classAttribute().isNominal()) {
+            double[] classWeights = new double[dataset.numClasses()];
+            for (int index : trainIndices) {
+                Instance instance = dataset.instance(index);
+                if (!instance.classIsMissing()) {
+                    classWeights[(int) instance.classValue()] += instance.weight();
+                }
+            }
+
+            for (int c = 0; c < classWeights.length; c++) {
+                priors.add(new Instance(classWeights[c], new double[] {c}));
+            }
+        } else {
+            // Numeric priors are estimated from every class value
+            for (int index : trainIndices) {
+                Instance instance = dataset.instance(index);
+                if (!instance.classIsMissing()) {
+                    priors.add(new Instance(instance.weight(), new double[] {instance.classValue()}));
+                }
+            }
+        }
+
+        return priors;
+    }
+
+    /**
+     * Get number of folds.
+     * @return number of folds
+     */
+    public int getNumFolds() {
+        return this.numFolds;
+    }
+
+    /**
+     * Set number of folds.
+     * @param numFolds - number of folds
+     */
+    public void setNumFolds(int numFolds) {
+        this.numFolds = numFolds;
+    }
+
+    /**
+     * Get number of threads used to build classifiers.
+     * @return number of threads
+     */
+    public int getNumThreads() {
+        return this.numThreads;
+    }
+
+    /**
+     * Set number of threads used to build classifiers.
+     * @param numThreads - number of threads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Check if seed of a Randomizable classifier is set to the seed of each run.
+     * @return true if the seed of the classifier is set, false if it is left unchanged
+     */
+    public boolean getSetClassifierSeed() {
+        return this.setClassifierSeed;
+    }
+
+    /**
+     * Set if seed of a Randomizable classifier is set to the seed of each run.
+     * Evaluation.crossValidateModel does not change the seed of the classifier,
+     * so results are equal to its results only if the seed is not set.
+     * @param setClassifierSeed - true to set the seed of the classifier, false to leave it unchanged
+     */
+    public void setSetClassifierSeed(boolean setClassifierSeed) {
+        this.setClassifierSeed = setClassifierSeed;
+    }
+
+    /**
+     * Training and test instances of a fold and future predictions for its test instances.
+     */
+    private static class Fold {
+
+        final int[] trainIndices;
+        final int[] testIndices;
+        Future<double[][]> predictions;
+
+        Fold(int[] trainIndices, int[] testIndices) {
+            this.trainIndices = trainIndices;
+            this.testIndices = testIndices;
+        }
+    }
+
+    /**
+     * Build a classifier on training instances of a fold and predict its test instances.
+     */
+    private static class FoldTask implements Callable<double[][]> {
+
+        private final Instances dataset;
+        private final Fold fold;
+        private final Classifier classifier;
+
+        FoldTask(Instances dataset, Fold fold, Classifier classifier) {
+            this.dataset = dataset;
+            this.fold = fold;
+            this.classifier = classifier;
+        }
+
+        public double[][] call() throws Exception {
+            this.classifier.buildClassifier(select(this.dataset, this.fold.trainIndices));
+
+            double[][] distributions = new double[this.fold.testIndices.length][];
+            for (int i = 0; i < distributions.length; i++) {
+                // Classifier should not see the class of a test instance, as in Evaluation
+                Instance classMissing = (Instance) this.dataset.instance(this.fold.testIndices[i]).copy();
+                classMissing.setDataset(this.dataset);
+                classMissing.setClassMissing();
+                distributions[i] = this.classifier.distributionForInstance(classMissing);
+            }
+
+            return distributions;
+        }
+    }
+}
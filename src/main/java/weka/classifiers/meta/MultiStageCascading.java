@@ -15,14 +15,19 @@
  */
 package weka.classifiers.meta;
 
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import weka.classifiers.Classifier;
 import weka.classifiers.MultipleClassifiersCombiner;
 import weka.classifiers.RandomizableMultipleClassifiersCombiner;
+import weka.classifiers.UpdateableClassifier;
 import weka.classifiers.lazy.IBk;
 import weka.core.*;
+import weka.core.neighboursearch.InvertedIndexNNSearch;
 import weka.filters.Filter;
 
 /**
@@ -57,6 +62,15 @@ import weka.filters.Filter;
  * <pre> -K &lt;IBk classifier&gt;
  *  kNN classifier that will be used if all user-specified classifiers are not confident in their predictions.</pre>
  * 
+ * <pre> -W &lt;tolerance&gt;
+ *  Maximal change of confidence rate or accuracy of a classifier on new data for it to be kept by warm start rebuild.
+ *  (default 0.05)</pre>
+ * 
+ * <pre> -H &lt;number of instances&gt;
+ *  Number of recent training instances of classifiers in the sequence and of the last classifier kept for warm start rebuild.
+ *  Warm start is disabled if it is 0.
+ *  (default 0)</pre>
+ * 
  * <pre> -S &lt;num&gt;
  *  Random number seed.
  *  (default 1)</pre>
@@ -82,6 +96,11 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
      * for serialization
      */
     static final long serialVersionUID = 3724314652175299374L;
+
+    // Number of instances used to measure time of the last classifier
+    private static final int COST_MEASUREMENT_INSTANCES = 100;
+    // Weight of a new measurement in the estimated time of a classifier
+    private static final double COST_SMOOTHING = 0.1;
     
     // Confidence thresholds for different classifiers, to find out if
     // it should be used for classifying a particular instance
@@ -90,16 +109,44 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
     private Classifier lastClassifier = getDefaultKNN();
     // Probabilities of selecting training instances to train current classifier
     private double[] selectProbabilities;
-    // Training instances for the sequence of classifiers
-    private Instances trainInstances;
-    // Training instances for the last classifier
-    private Instances lastClassifierTrainingInstances;
+    // All training instances. Instances are shared by the index views below and not copied
+    private Instances trainingData;
+    // Indices of training instances for the sequence of classifiers
+    private int[] trainIndices;
+    // Indices of training instances for the last classifier
+    private int[] lastClassifierTrainIndices;
+    // Training instances of the last classifier. After training only recent instances are kept
+    // for warm start, which routes them through retrained classifiers to train the last classifier
+    private Instances validationInstances;
+    // Recent training instances of classifiers in the sequence kept for warm start
+    private Instances stageHistory;
     // Shared random generator with the specified seed for experiments repetability
     private Random random = new Random(getSeed());
     // How many of training instances will be used for training classifiers in a sequence
     private double percentTrainingInstances = getDefaultSelectionPercentage();
     // Flag that shows that last classifier was changed
     boolean lastClassifierChanged = false;
+    // Part of validation instances reaching each classifier on which the classifier is confident
+    private double[] stageConfidenceRates;
+    // Accuracy of each classifier on validation instances it is confident about
+    private double[] stageAccuracies;
+    // Maximal change of confidence rate or accuracy for a classifier to be kept by warm start
+    private double warmStartTolerance = getDefaultWarmStartTolerance();
+    // Number of recent instances of each part of training data kept for warm start, 0 disables warm start
+    private int warmStartHistorySize = getDefaultWarmStartHistorySize();
+    // Time of classifying an instance by each classifier in the sequence measured during training, in nanoseconds
+    private double[] stageBaseCosts;
+    // Estimated time of classifying an instance by each classifier in the sequence, in nanoseconds.
+    // Estimates are guarded by this classifier, since they are updated by concurrent predictions
+    private double[] stageCosts;
+    // Time of classifying an instance by the last classifier measured during training, in nanoseconds
+    private double lastClassifierBaseCost = Double.NaN;
+    // Estimated time of classifying an instance by the last classifier, in nanoseconds, NaN if it is unknown
+    private double lastClassifierCost = Double.NaN;
+    // Number of predictions with a time budget
+    private final AtomicLong numBudgetedPredictions = new AtomicLong();
+    // Number of predictions with a time budget that were stopped before a confident classifier was found
+    private final AtomicLong numDegradedPredictions = new AtomicLong();
 
     @Override
     public void buildClassifier(Instances dataset) throws Exception {
@@ -110,6 +157,14 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
 
         getCapabilities().testWithFail(dataset);
 
+        if (!lastClassifierChanged() && isSparse(dataset)) {
+            // Default linear kNN search computes distances over all attributes
+            ((IBk) this.lastClassifier).setNearestNeighbourSearchAlgorithm(new InvertedIndexNNSearch());
+        }
+
+        // Classifier built with the same seed should not depend on previous builds
+        this.random = new Random(getSeed());
+
         divideInstances(dataset);
         initializeInstancesProbabilities();
 
@@ -125,7 +180,143 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
             updateInstancesProbabilities(classifier);
         }
 
-        trainLastClassifier();
+        this.validationInstances = new Instances(dataset, this.lastClassifierTrainIndices.length);
+        addValidationInstances();
+        ValidationPass validationPass = routeValidationInstances(0, 0);
+        this.lastClassifier.buildClassifier(validationPass.kNNInstances);
+
+        this.stageConfidenceRates = validationPass.confidenceRates;
+        this.stageAccuracies = validationPass.accuracies;
+        resetCosts(validationPass.costs, measureLastClassifierCost(0));
+
+        if (this.warmStartHistorySize > 0) {
+            this.stageHistory = new Instances(dataset, this.trainIndices.length);
+            addStageHistoryInstances();
+            this.validationInstances = trimHistory(this.validationInstances);
+        } else {
+            this.stageHistory = null;
+            this.validationInstances = null;
+        }
+
+        // Training data is not needed for classification, warm start keeps only the recent instances copied above
+        this.trainingData = null;
+        this.trainIndices = null;
+        this.lastClassifierTrainIndices = null;
+        this.selectProbabilities = null;
+    }
+
+    /**
+     * Update the built classifier with instances that were appended to the training
+     * instances since the last build or rebuild. Only new instances should be passed,
+     * instances of previous builds are already a part of the classifier. Warm start
+     * requires a positive warm start history size when the classifier is built.
+     * <p/>
+     * New instances are divided between classifiers in the sequence and the last
+     * classifier and added to the recent instances of each part, of which at most
+     * the warm start history size is kept. Classifiers in the sequence whose confidence
+     * rate and accuracy on the new instances changed less than the warm start tolerance
+     * are kept. The first classifier that drifted and all classifiers after it are
+     * retrained on the recent instances, and their statistics are measured on all
+     * recent instances of the last classifier. If a classifier was retrained or old
+     * instances were dropped from the history, the last classifier is trained on recent
+     * instances that no classifier is confident about. Otherwise only new instances that
+     * no classifier is confident about are added to the last classifier.
+     * @param dataset - instances appended since the last build or rebuild
+     * @throws Exception if warm start is disabled, new instances are not compatible
+     * with previous ones or training failed
+     */
+    public void rebuildClassifier(Instances dataset) throws Exception {
+
+        if (this.stageAccuracies == null) {
+            buildClassifier(dataset);
+            return;
+        }
+
+        if (this.validationInstances == null) {
+            throw new Exception("Warm start history size should be positive when the classifier is built");
+        }
+
+        if (getClassifiers().length != this.confidenceThresholds.length) {
+            throw new Exception("Number of thresholds should be equal to the number of classifers");
+        }
+
+        if (!this.validationInstances.equalHeaders(dataset)) {
+            throw new Exception("New instances are not compatible with the training instances");
+        }
+
+        getCapabilities().testWithFail(dataset);
+
+        divideInstances(dataset);
+        addValidationInstances();
+        int numValidationInstances = this.validationInstances.numInstances();
+        this.validationInstances = trimHistory(this.validationInstances);
+        boolean historyTrimmed = this.validationInstances.numInstances() < numValidationInstances;
+        int firstNewInstance = Math.max(0, this.validationInstances.numInstances() - this.lastClassifierTrainIndices.length);
+
+        addStageHistoryInstances();
+        this.stageHistory = trimHistory(this.stageHistory);
+        // Classifiers in the sequence are retrained on recent instances
+        this.trainingData = this.stageHistory;
+        this.trainIndices = new int[this.stageHistory.numInstances()];
+        for (int i = 0; i < this.trainIndices.length; i++) {
+            this.trainIndices[i] = i;
+        }
+
+        Classifier[] classifiers = getClassifiers();
+        ValidationPass validationPass = routeValidationInstances(firstNewInstance, firstNewInstance);
+        int firstDrifted = 0;
+        while (firstDrifted < classifiers.length
+                && !changed(this.stageConfidenceRates[firstDrifted], validationPass.confidenceRates[firstDrifted])
+                && !changed(this.stageAccuracies[firstDrifted], validationPass.accuracies[firstDrifted])) {
+            firstDrifted++;
+        }
+
+        if (firstDrifted < classifiers.length) {
+            initializeInstancesProbabilities();
+
+            // Kept classifiers only change probabilities of selecting instances
+            for (int ci = 0; ci < firstDrifted; ci++) {
+                updateInstancesProbabilities(classifiers[ci]);
+            }
+
+            for (int ci = firstDrifted; ci < classifiers.length; ci++) {
+                Instances instancesForClassifier = selectInstances();
+
+                if (getDebug()) {
+                    System.out.println("Retraining classifer " + classifiers[ci].getClass());
+                    System.out.println("Number of instances for classifer " + instancesForClassifier.numInstances());
+                }
+
+                classifiers[ci].buildClassifier(instancesForClassifier);
+                updateInstancesProbabilities(classifiers[ci]);
+            }
+
+            // Retrained classifiers may be confident about other instances than the old ones
+            validationPass = routeValidationInstances(0, 0);
+            for (int ci = firstDrifted; ci < classifiers.length; ci++) {
+                this.stageConfidenceRates[ci] = validationPass.confidenceRates[ci];
+                this.stageAccuracies[ci] = validationPass.accuracies[ci];
+            }
+            this.lastClassifier.buildClassifier(validationPass.kNNInstances);
+        } else if (this.lastClassifier instanceof UpdateableClassifier && !historyTrimmed) {
+            if (getDebug()) {
+                System.out.println("All classifiers are kept");
+            }
+
+            Instances kNNInstances = validationPass.kNNInstances;
+            for (int i = 0; i < kNNInstances.numInstances(); i++) {
+                ((UpdateableClassifier) this.lastClassifier).updateClassifier(kNNInstances.instance(i));
+            }
+        } else {
+            this.lastClassifier.buildClassifier(routeValidationInstances(0, this.validationInstances.numInstances()).kNNInstances);
+        }
+
+        resetCosts(validationPass.costs, measureLastClassifierCost(firstNewInstance));
+
+        this.trainingData = null;
+        this.trainIndices = null;
+        this.lastClassifierTrainIndices = null;
+        this.selectProbabilities = null;
     }
 
     @Override
@@ -151,6 +342,122 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
         return lastClassifier.distributionForInstance(instance);
     }
 
+    /**
+     * Classify an instance within a time budget. The next classifier in the sequence
+     * is used only if its estimated time fits into the rest of the budget. Otherwise
+     * the distribution of the most confident classifier used so far is returned and
+     * the prediction is counted as degraded. The first classifier is always used.
+     * Time estimates are measured during training and updated by every call.
+     * A classifier whose time could not be measured does not fit into any budget.
+     * A classifier that was skipped is not measured, so its estimate decays towards
+     * the time measured during training, and the classifier is used again when the
+     * estimate fits into the budget.
+     * @param instance - instance to classify
+     * @param budget - time budget of the prediction
+     * @param unit - unit of the budget
+     * @return distribution of probabilities for the instance
+     * @throws Exception if the instance could not be classified
+     */
+    public double[] distributionForInstance(Instance instance, long budget, TimeUnit unit) throws Exception {
+        // Deadline may overflow, so it is only compared by the difference with the current time
+        long deadline = System.nanoTime() + unit.toNanos(budget);
+        this.numBudgetedPredictions.incrementAndGet();
+
+        double[] bestDistribution = null;
+        double bestConfidence = -1;
+
+        Classifier[] classifiers = getClassifiers();
+        for (int i = 0; i < classifiers.length; i++) {
+            if (bestDistribution != null && !fitsBudget(getStageCost(i), deadline)) {
+                decayStageCost(i);
+                return degradedDistribution(bestDistribution, i);
+            }
+
+            long start = System.nanoTime();
+            double[] distribution = classifiers[i].distributionForInstance(instance);
+            updateStageCost(i, System.nanoTime() - start);
+
+            double confidence = getConfidence(distribution);
+            if (classifierIsConfident(confidence, i)) {
+                return distribution;
+            }
+
+            if (confidence > bestConfidence) {
+                bestConfidence = confidence;
+                bestDistribution = distribution;
+            }
+        }
+
+        if (bestDistribution != null && !fitsBudget(getLastClassifierCost(), deadline)) {
+            decayLastClassifierCost();
+            return degradedDistribution(bestDistribution, classifiers.length);
+        }
+
+        long start = System.nanoTime();
+        double[] distribution = lastClassifier.distributionForInstance(instance);
+        updateLastClassifierCost(System.nanoTime() - start);
+
+        return distribution;
+    }
+
+    /**
+     * Get number of predictions with a time budget.
+     * @return number of predictions made by distributionForInstance with a time budget
+     */
+    public long getNumBudgetedPredictions() {
+        return this.numBudgetedPredictions.get();
+    }
+
+    /**
+     * Get number of predictions that were stopped by a time budget before
+     * a confident classifier was found.
+     * @return number of degraded predictions
+     */
+    public long getNumDegradedPredictions() {
+        return this.numDegradedPredictions.get();
+    }
+
+    /**
+     * Classify a batch of instances. Each classifier in the sequence processes
+     * all instances of the batch that previous classifiers were not confident about
+     * before the next classifier is used, so every classifier is used once per batch.
+     * @param instances - instances to classify
+     * @return distributions of probabilities in the same order as instances
+     * @throws Exception if an instance could not be classified
+     */
+    public double[][] distributionsForInstances(Instance[] instances) throws Exception {
+        double[][] distributions = new double[instances.length][];
+
+        // Instances that were not classified by previous classifiers
+        int[] pending = new int[instances.length];
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = i;
+        }
+        int numPending = pending.length;
+
+        Classifier[] classifiers = getClassifiers();
+        for (int ci = 0; ci < classifiers.length && numPending > 0; ci++) {
+            int numNotConfident = 0;
+            for (int p = 0; p < numPending; p++) {
+                int i = pending[p];
+                double[] distribution = classifiers[ci].distributionForInstance(instances[i]);
+                if (classifierIsConfident(getConfidence(distribution), ci)) {
+                    distributions[i] = distribution;
+                } else {
+                    pending[numNotConfident++] = i;
+                }
+            }
+            numPending = numNotConfident;
+        }
+
+        for (int p = 0; p < numPending; p++) {
+            int i = pending[p];
+            distributions[i] = lastClassifier.distributionForInstance(instances[i]);
+        }
+
+        return distributions;
+    }
+
     @Override
     public Enumeration listOptions() {
 
@@ -168,6 +475,17 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
                 "\tkNN classifier that will be used if all user-specified classifiers are not confident in their predictions. It is recommended to use kNN for this purposes",
                 "K", 1, "-K <IBk classifier>"));
 
+        newVector.addElement(new Option(
+                "\tMaximal change of confidence rate or accuracy of a classifier on new data for it to be kept by warm start rebuild.\n"
+                + "\t(default 0.05)",
+                "W", 1, "-W <tolerance>"));
+
+        newVector.addElement(new Option(
+                "\tNumber of recent training instances of classifiers in the sequence and of the last classifier kept for warm start rebuild.\n"
+                + "\tWarm start is disabled if it is 0.\n"
+                + "\t(default 0)",
+                "H", 1, "-H <number of instances>"));
+
         Enumeration enu = super.listOptions();
         while (enu.hasMoreElements()) {
             newVector.addElement(enu.nextElement());
@@ -191,6 +509,15 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
      * <pre> -K &lt;IBk classifier&gt;
      *  kNN classifier that will be used if all user-specified classifiers are not confident in their predictions.</pre>
      * 
+     * <pre> -W &lt;tolerance&gt;
+     *  Maximal change of confidence rate or accuracy of a classifier on new data for it to be kept by warm start rebuild.
+     *  (default 0.05)</pre>
+     * 
+     * <pre> -H &lt;number of instances&gt;
+     *  Number of recent training instances of classifiers in the sequence and of the last classifier kept for warm start rebuild.
+     *  Warm start is disabled if it is 0.
+     *  (default 0)</pre>
+     * 
      * <pre> -S &lt;num&gt;
      *  Random number seed.
      *  (default 1)</pre>
@@ -239,6 +566,20 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
             this.confidenceThresholds = getDefaultThresholds();
         }
 
+        String tolerance = Utils.getOption("W", options);
+        if (tolerance.length() != 0) {
+            this.warmStartTolerance = Double.parseDouble(tolerance);
+        } else {
+            this.warmStartTolerance = getDefaultWarmStartTolerance();
+        }
+
+        String historySize = Utils.getOption("H", options);
+        if (historySize.length() != 0) {
+            this.warmStartHistorySize = Integer.parseInt(historySize);
+        } else {
+            this.warmStartHistorySize = getDefaultWarmStartHistorySize();
+        }
+
         super.setOptions(options);
 
         Utils.checkForRemainingOptions(options);
@@ -274,6 +615,16 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
             result.add("" + lastClassifier.getClass().getName() + " " + Utils.joinOptions(((OptionHandler)lastClassifier).getOptions()));
         }
 
+        if (warmStartToleranceChanged()) {
+            result.add("-W");
+            result.add("" + getWarmStartTolerance());
+        }
+
+        if (warmStartHistorySizeChanged()) {
+            result.add("-H");
+            result.add("" + getWarmStartHistorySize());
+        }
+
         options = super.getOptions();
         for (i = 0; i < options.length; i++) {
             result.add(options[i]);
@@ -298,6 +649,22 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
         return this.percentTrainingInstances != getDefaultSelectionPercentage();
     }
 
+    /**
+     * Check if warm start tolerance was changed.
+     * @return true if this value was changed, false otherwise
+     */
+    private boolean warmStartToleranceChanged() {
+        return this.warmStartTolerance != getDefaultWarmStartTolerance();
+    }
+
+    /**
+     * Check if warm start history size was changed.
+     * @return true if this value was changed, false otherwise
+     */
+    private boolean warmStartHistorySizeChanged() {
+        return this.warmStartHistorySize != getDefaultWarmStartHistorySize();
+    }
+
     /**
      * Check if last classifier was changed
      * @return return true if this value was changed, false otherwise.
@@ -310,6 +677,12 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
     public void setClassifiers(Classifier[] classifiers) {
         super.setClassifiers(classifiers);
         setConfidenceThresholds(getDefaultThresholds(classifiers.length));
+        // Statistics of previous classifiers can not be used by warm start
+        this.validationInstances = null;
+        this.stageHistory = null;
+        this.stageConfidenceRates = null;
+        this.stageAccuracies = null;
+        resetCosts(null, Double.NaN);
     }
     
     /**
@@ -395,6 +768,50 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
         return "Percent of training data that will be used to train each classifier";
     }
 
+    /**
+     * Get maximal change of confidence rate or accuracy for a classifier to be kept by warm start.
+     * @return warm start tolerance
+     */
+    public double getWarmStartTolerance() {
+        return this.warmStartTolerance;
+    }
+
+    /**
+     * Set maximal change of confidence rate or accuracy for a classifier to be kept by warm start.
+     * @param warmStartTolerance 
+     */
+    public void setWarmStartTolerance(double warmStartTolerance) {
+        this.warmStartTolerance = warmStartTolerance;
+    }
+
+    public String warmStartToleranceTipText() {
+        return "Maximal change of confidence rate or accuracy of a classifier on new data "
+                + "for the classifier to be kept when the cascade is rebuilt with new data";
+    }
+
+    /**
+     * Get number of recent instances of each part of training data kept for warm start.
+     * @return warm start history size, 0 if warm start is disabled
+     */
+    public int getWarmStartHistorySize() {
+        return this.warmStartHistorySize;
+    }
+
+    /**
+     * Set number of recent instances of each part of training data kept for warm start.
+     * Takes effect when the classifier is built.
+     * @param warmStartHistorySize - warm start history size, 0 to disable warm start
+     */
+    public void setWarmStartHistorySize(int warmStartHistorySize) {
+        this.warmStartHistorySize = warmStartHistorySize;
+    }
+
+    public String warmStartHistorySizeTipText() {
+        return "Number of recent training instances of classifiers in the sequence and of the last "
+                + "classifier that are kept with the model to rebuild it with new data. Warm start is "
+                + "disabled if it is 0";
+    }
+
     @Override
     public Capabilities getCapabilities() {
         Capabilities result = super.getCapabilities();
@@ -428,20 +845,27 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
     /**
      * Randomly divide training instances into two categories: training instances
      * for classifiers in sequence and training instances for the last classifier.
+     * Instances are not copied, only their indices are stored.
      * @param instances - all training instances
      */
     private void divideInstances(Instances instances) {
-        this.trainInstances = new Instances(instances, 0, 0);
-        this.lastClassifierTrainingInstances = new Instances(instances, 0, 0);
+        this.trainingData = instances;
+
+        int[] trainIndicesBuffer = new int[instances.numInstances()];
+        int[] lastClassifierIndicesBuffer = new int[instances.numInstances()];
+        int numTrainInstances = 0;
+        int numLastClassifierInstances = 0;
 
         for (int i = 0; i < instances.numInstances(); i++) {
-            Instance instance = instances.instance(i);
             if (this.random.nextDouble() >= 0.5) {
-                this.trainInstances.add(instance);
+                trainIndicesBuffer[numTrainInstances++] = i;
             } else {
-                this.lastClassifierTrainingInstances.add(instance);
+                lastClassifierIndicesBuffer[numLastClassifierInstances++] = i;
             }
         }
+
+        this.trainIndices = Arrays.copyOf(trainIndicesBuffer, numTrainInstances);
+        this.lastClassifierTrainIndices = Arrays.copyOf(lastClassifierIndicesBuffer, numLastClassifierInstances);
     }
 
     /**
@@ -449,7 +873,7 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
      */
     private void initializeInstancesProbabilities() {
 
-        this.selectProbabilities = new double[trainInstances.numInstances()];
+        this.selectProbabilities = new double[trainIndices.length];
 
         double initProbability = 1.0 / selectProbabilities.length;
         for (int i = 0; i < this.selectProbabilities.length; i++) {
@@ -462,11 +886,11 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
      * @return training instances for the classifier
      */
     private Instances selectInstances() {
-        Instances selectedInstances = new Instances(trainInstances, 0, 0);
+        int numTrainingInstances = (int) (this.trainIndices.length * percentTrainingInstances);
+        Instances selectedInstances = new Instances(trainingData, numTrainingInstances);
 
         int prevInstance = -1;
         int currentInstance = 0;
-        int numTrainingInstances = (int) (this.trainInstances.numInstances() * percentTrainingInstances);
         for (int i = 0; i < numTrainingInstances; i++) {
             double step = this.random.nextDouble();
 
@@ -476,7 +900,7 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
                 currentInstance = (currentInstance + 1) % this.selectProbabilities.length;
             }
 
-            selectedInstances.add(trainInstances.instance(prevInstance));
+            selectedInstances.add(trainingData.instance(trainIndices[prevInstance]));
         }
 
         return selectedInstances;
@@ -490,15 +914,13 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
      */
     private void updateInstancesProbabilities(Classifier classifier) throws Exception {
 
-        int classIndex = trainInstances.classIndex();
-        
         double sum = 0;
-        for (int i = 0; i < trainInstances.numInstances(); i++) {
-            Instance instance = trainInstances.instance(i);
+        for (int i = 0; i < trainIndices.length; i++) {
+            Instance instance = trainingData.instance(trainIndices[i]);
 
             double[] distribution = classifier.distributionForInstance(instance);
                        
-            double classValue = instance.value(classIndex);
+            double classValue = instance.classValue();
             double currentClassConfidence = distribution[(int) classValue];
             this.selectProbabilities[i] = currentClassConfidence;
             sum += currentClassConfidence;
@@ -510,26 +932,84 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
     }
 
     /**
-     * Train the last classifier.
-     * @throws Exception - if training failed.
+     * Copy training instances of the last classifier to the end of validation instances.
      */
-    private void trainLastClassifier() throws Exception {
+    private void addValidationInstances() {
+        for (int index : this.lastClassifierTrainIndices) {
+            this.validationInstances.add(this.trainingData.instance(index));
+        }
+    }
 
-        int classIndex = trainInstances.classIndex();
-        
-        Instances kNNInstances = new Instances(this.lastClassifierTrainingInstances, 0, 0);
-        for (int i = 0; i < this.lastClassifierTrainingInstances.numInstances(); i++) {
-            Instance instance = this.lastClassifierTrainingInstances.instance(i);
+    /**
+     * Copy training instances of classifiers in the sequence to the end of their history.
+     */
+    private void addStageHistoryInstances() {
+        for (int index : this.trainIndices) {
+            this.stageHistory.add(this.trainingData.instance(index));
+        }
+    }
+
+    /**
+     * Drop the oldest instances of a history that exceed the warm start history size.
+     * @param history - instances in the order they were added
+     * @return the most recent instances of the history
+     */
+    private Instances trimHistory(Instances history) {
+        int numDropped = history.numInstances() - this.warmStartHistorySize;
+        if (numDropped <= 0) {
+            return history;
+        }
+        return new Instances(history, numDropped, this.warmStartHistorySize);
+    }
+
+    /**
+     * Route validation instances through classifiers in the sequence. Training
+     * instances for the last classifier and statistics of classifiers are
+     * collected in the same pass. An instance is left for the last classifier
+     * if no classifier is confident about its true class. For statistics, an
+     * instance reaches a classifier if previous classifiers are not confident
+     * about any class, as during classification.
+     * @param firstInstance - number of the first validation instance to route
+     * @param firstMeasured - number of the first validation instance to collect statistics on
+     * @return training instances for the last classifier and statistics of classifiers.
+     * Statistics are NaN for classifiers that no instance reached or that were
+     * not confident about any instance.
+     * @throws Exception - if an instance could not be classified
+     */
+    private ValidationPass routeValidationInstances(int firstInstance, int firstMeasured) throws Exception {
+
+        Classifier[] classifiers = getClassifiers();
+        int[] numReached = new int[classifiers.length];
+        int[] numConfident = new int[classifiers.length];
+        int[] numCorrect = new int[classifiers.length];
+        long[] totalTime = new long[classifiers.length];
+
+        Instances kNNInstances = new Instances(this.validationInstances, this.validationInstances.numInstances() - firstInstance);
+        for (int i = firstInstance; i < this.validationInstances.numInstances(); i++) {
+            Instance instance = this.validationInstances.instance(i);
+            int classValue = (int) instance.classValue();
+            // Confidence in any class is not lower than confidence in the true class,
+            // so statistics of an instance are complete before it leaves the sequence
+            boolean measured = i < firstMeasured;
 
             boolean confidentClassifierFound = false;
-            Classifier[] classifiers = getClassifiers();
             for (int ci = 0; ci < classifiers.length; ci++) {
-                Classifier classifier = classifiers[ci];
-                double[] distribution = classifier.distributionForInstance(instance);
+                long start = System.nanoTime();
+                double[] distribution = classifiers[ci].distributionForInstance(instance);
+
+                if (!measured) {
+                    totalTime[ci] += System.nanoTime() - start;
+                    numReached[ci]++;
+                    if (classifierIsConfident(getConfidence(distribution), ci)) {
+                        measured = true;
+                        numConfident[ci]++;
+                        if (Utils.maxIndex(distribution) == classValue) {
+                            numCorrect[ci]++;
+                        }
+                    }
+                }
 
-                double classValue = instance.value(classIndex);
-                double currentClassConfidence = distribution[(int) classValue];
-                if (classifierIsConfident(currentClassConfidence, ci)) {
+                if (classifierIsConfident(distribution[classValue], ci)) {
                     confidentClassifierFound = true;
                     break;
                 }
@@ -540,8 +1020,179 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
             }
         }
 
-        this.lastClassifier.buildClassifier(kNNInstances);
+        ValidationPass validationPass = new ValidationPass(kNNInstances, classifiers.length);
+        for (int ci = 0; ci < classifiers.length; ci++) {
+            validationPass.confidenceRates[ci] = numReached[ci] == 0 ? Double.NaN : (double) numConfident[ci] / numReached[ci];
+            validationPass.accuracies[ci] = numConfident[ci] == 0 ? Double.NaN : (double) numCorrect[ci] / numConfident[ci];
+            validationPass.costs[ci] = numReached[ci] == 0 ? Double.NaN : (double) totalTime[ci] / numReached[ci];
+        }
+
+        return validationPass;
     }
+
+    /**
+     * Check if an operation can be finished before a deadline.
+     * @param cost - estimated time of the operation in nanoseconds
+     * @param deadline - deadline in terms of System.nanoTime()
+     * @return true if the operation is expected to finish before the deadline,
+     * false if it is not or its time is unknown
+     */
+    private boolean fitsBudget(double cost, long deadline) {
+        return deadline - System.nanoTime() > cost;
+    }
+
+    /**
+     * Count a degraded prediction.
+     * @param distribution - best distribution found before the deadline
+     * @param stage - number of the first classifier that was not used
+     * @return the distribution
+     */
+    private double[] degradedDistribution(double[] distribution, int stage) {
+        this.numDegradedPredictions.incrementAndGet();
+        if (getDebug()) {
+            System.out.println("Time budget is over before classifier number " + stage);
+        }
+        return distribution;
+    }
+
+    /**
+     * Measure average time of classifying an instance by the last classifier.
+     * @param firstInstance - number of the first validation instance to measure on
+     * @return average time in nanoseconds, NaN if there are no instances to measure it
+     * @throws Exception - if an instance could not be classified
+     */
+    private double measureLastClassifierCost(int firstInstance) throws Exception {
+        int numInstances = Math.min(this.validationInstances.numInstances() - firstInstance, COST_MEASUREMENT_INSTANCES);
+        if (numInstances == 0) {
+            return Double.NaN;
+        }
+
+        long start = System.nanoTime();
+        for (int i = firstInstance; i < firstInstance + numInstances; i++) {
+            this.lastClassifier.distributionForInstance(this.validationInstances.instance(i));
+        }
+
+        return (double) (System.nanoTime() - start) / numInstances;
+    }
+
+    /**
+     * Set time estimates to times measured during training.
+     * @param costs - time of classifying an instance by each classifier in the sequence, null if it is unknown
+     * @param lastCost - time of classifying an instance by the last classifier, NaN if it is unknown
+     */
+    private synchronized void resetCosts(double[] costs, double lastCost) {
+        this.stageBaseCosts = costs;
+        this.stageCosts = costs == null ? null : costs.clone();
+        this.lastClassifierBaseCost = lastCost;
+        this.lastClassifierCost = lastCost;
+    }
+
+    /**
+     * Get estimated time of classifying an instance by a classifier in the sequence.
+     * @param classifierIndex - number of classifier in a sequence
+     * @return estimated time in nanoseconds, NaN if it is unknown
+     */
+    private synchronized double getStageCost(int classifierIndex) {
+        if (this.stageCosts == null) {
+            return Double.NaN;
+        }
+        return this.stageCosts[classifierIndex];
+    }
+
+    /**
+     * Get estimated time of classifying an instance by the last classifier.
+     * @return estimated time in nanoseconds, NaN if it is unknown
+     */
+    private synchronized double getLastClassifierCost() {
+        return this.lastClassifierCost;
+    }
+
+    /**
+     * Update estimated time of classifying an instance by a classifier in the sequence.
+     * @param classifierIndex - number of classifier in a sequence
+     * @param cost - measured time in nanoseconds
+     */
+    private synchronized void updateStageCost(int classifierIndex, long cost) {
+        if (this.stageCosts != null) {
+            this.stageCosts[classifierIndex] = updateCost(this.stageCosts[classifierIndex], cost);
+        }
+    }
+
+    /**
+     * Update estimated time of classifying an instance by the last classifier.
+     * @param cost - measured time in nanoseconds
+     */
+    private synchronized void updateLastClassifierCost(long cost) {
+        this.lastClassifierCost = updateCost(this.lastClassifierCost, cost);
+    }
+
+    /**
+     * Move estimated time of a skipped classifier in the sequence towards the time
+     * measured during training, so that a classifier skipped after a slow prediction
+     * is used again.
+     * @param classifierIndex - number of classifier in a sequence
+     */
+    private synchronized void decayStageCost(int classifierIndex) {
+        if (this.stageCosts != null) {
+            this.stageCosts[classifierIndex] = decayCost(this.stageCosts[classifierIndex], this.stageBaseCosts[classifierIndex]);
+        }
+    }
+
+    /**
+     * Move estimated time of the skipped last classifier towards the time measured during training.
+     */
+    private synchronized void decayLastClassifierCost() {
+        this.lastClassifierCost = decayCost(this.lastClassifierCost, this.lastClassifierBaseCost);
+    }
+
+    /**
+     * Update estimated time of an operation with a new measurement.
+     * @param estimate - current estimate, NaN if it is unknown
+     * @param cost - measured time
+     * @return exponentially smoothed estimate
+     */
+    private double updateCost(double estimate, long cost) {
+        if (Double.isNaN(estimate)) {
+            return cost;
+        }
+        return estimate + COST_SMOOTHING * (cost - estimate);
+    }
+
+    /**
+     * Move estimated time of an operation that was not performed towards its usual time.
+     * @param estimate - current estimate, NaN if it is unknown
+     * @param baseCost - usual time of the operation, NaN if it is unknown
+     * @return decayed estimate, the same estimate if one of the values is unknown
+     */
+    private double decayCost(double estimate, double baseCost) {
+        if (Double.isNaN(estimate) || Double.isNaN(baseCost)) {
+            return estimate;
+        }
+        return estimate + COST_SMOOTHING * (baseCost - estimate);
+    }
+
+    /**
+     * Check if a statistic of a classifier changed more than the warm start tolerance.
+     * @param oldValue - value measured when the classifier was trained
+     * @param newValue - value measured on new instances
+     * @return true if the value changed, false if it did not or one of the values is unknown
+     */
+    private boolean changed(double oldValue, double newValue) {
+        if (Double.isNaN(oldValue) || Double.isNaN(newValue)) {
+            return false;
+        }
+        return Math.abs(newValue - oldValue) > this.warmStartTolerance;
+    }
+
+    /**
+     * Check if instances are stored in sparse format.
+     * @param instances - instances to check
+     * @return true if the first instance is a sparse instance, false otherwise
+     */
+    private boolean isSparse(Instances instances) {
+        return instances.numInstances() > 0 && instances.instance(0) instanceof SparseInstance;
+    }
+
     /**
      * Check if current classifier is confident
      * @param confidence - confidence of classifier during classifying an instance
@@ -608,5 +1259,44 @@ public class MultiStageCascading extends RandomizableMultipleClassifiersCombiner
     private double getDefaultSelectionPercentage() {
         return 0.8;
     }
+
+    /**
+     * Get default value of warm start tolerance
+     * @return maximal change of confidence rate or accuracy for a classifier to be kept.
+     */
+    private double getDefaultWarmStartTolerance() {
+        return 0.05;
+    }
+
+    /**
+     * Get default value of warm start history size
+     * @return number of recent instances kept for warm start, warm start is disabled by default.
+     */
+    private int getDefaultWarmStartHistorySize() {
+        return 0;
+    }
+
+    /**
+     * Training instances for the last classifier and statistics of classifiers
+     * in the sequence collected by one pass over validation instances.
+     */
+    private static class ValidationPass {
+
+        // Instances that no classifier in the sequence is confident about
+        final Instances kNNInstances;
+        // Part of instances reaching each classifier on which the classifier is confident
+        final double[] confidenceRates;
+        // Accuracy of each classifier on instances it is confident about
+        final double[] accuracies;
+        // Average time of classifying an instance by each classifier, in nanoseconds
+        final double[] costs;
+
+        ValidationPass(Instances kNNInstances, int numClassifiers) {
+            this.kNNInstances = kNNInstances;
+            this.confidenceRates = new double[numClassifiers];
+            this.accuracies = new double[numClassifiers];
+            this.costs = new double[numClassifiers];
+        }
+    }
 }
 
@@ -0,0 +1,246 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.meta.serving;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Socket front end of the scoring service. Each connection is served by its
+ * own thread that reads request lines, submits instances to the scoring
+ * service and writes response lines (see {@link ScoringProtocol}). All threads
+ * of the server are daemon threads, and stopping the server closes open connections.
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class CascadeScoringServer {
+
+    // Service that classifies instances
+    private final CascadeScoringService service;
+    // Header of the instances the classifier was built on
+    private final Instances header;
+    // How long a connection waits for a free place in the queue of the service, in milliseconds
+    private long submitTimeout = 100;
+
+    private ServerSocket serverSocket;
+    private ExecutorService connectionExecutor;
+    private Thread acceptThread;
+    // Open connections, guarded by itself. Null when the server is stopped
+    private Set<Socket> connections;
+
+    /**
+     * Create a scoring server.
+     * @param service - started scoring service
+     * @param header - header of the instances the classifier was built on
+     */
+    public CascadeScoringServer(CascadeScoringService service, Instances header) {
+        this.service = service;
+        this.header = new Instances(header, 0);
+    }
+
+    /**
+     * Start accepting connections on a local port.
+     * @param port - port to listen on, 0 to use any free port
+     * @throws IOException if the port cannot be opened
+     */
+    public synchronized void start(int port) throws IOException {
+        if (this.serverSocket != null) {
+            throw new IllegalStateException("Scoring server is already running");
+        }
+
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getByName("localhost"));
+        this.connections = new HashSet<Socket>();
+        this.connectionExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "cascade-scoring-connection");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final ServerSocket socket = this.serverSocket;
+        final Set<Socket> openConnections = this.connections;
+        this.acceptThread = new Thread(new Runnable() {
+
+            public void run() {
+                acceptLoop(socket, openConnections);
+            }
+        }, "cascade-scoring-server");
+        this.acceptThread.setDaemon(true);
+        this.acceptThread.start();
+    }
+
+    /**
+     * Stop accepting connections and close open connections.
+     * @throws IOException if the server socket cannot be closed
+     */
+    public synchronized void stop() throws IOException {
+        if (this.serverSocket == null) {
+            return;
+        }
+
+        this.serverSocket.close();
+        this.connectionExecutor.shutdownNow();
+
+        // Connection threads are blocked in reading and are not interrupted by shutdownNow
+        synchronized (this.connections) {
+            for (Socket connection : this.connections) {
+                closeConnection(connection);
+            }
+            this.connections.clear();
+        }
+
+        this.serverSocket = null;
+        this.connections = null;
+    }
+
+    /**
+     * Get port the server listens on.
+     * @return local port
+     */
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * Get how long a connection waits for a free place in the queue of the service.
+     * @return timeout in milliseconds
+     */
+    public long getSubmitTimeout() {
+        return this.submitTimeout;
+    }
+
+    /**
+     * Set how long a connection waits for a free place in the queue of the service
+     * before the instance is rejected.
+     * @param submitTimeout - timeout in milliseconds
+     */
+    public void setSubmitTimeout(long submitTimeout) {
+        this.submitTimeout = submitTimeout;
+    }
+
+    private void acceptLoop(ServerSocket socket, final Set<Socket> openConnections) {
+        while (!socket.isClosed()) {
+            final Socket connection;
+            try {
+                connection = socket.accept();
+            } catch (SocketException e) {
+                // Server socket was closed
+                return;
+            } catch (IOException e) {
+                System.err.println("Failed to accept connection: " + e.getMessage());
+                continue;
+            }
+
+            synchronized (openConnections) {
+                // Server could be stopped after the connection was accepted
+                if (socket.isClosed()) {
+                    closeConnection(connection);
+                    return;
+                }
+                openConnections.add(connection);
+            }
+
+            try {
+                this.connectionExecutor.execute(new Runnable() {
+
+                    public void run() {
+                        try {
+                            serveConnection(connection);
+                        } finally {
+                            synchronized (openConnections) {
+                                openConnections.remove(connection);
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Server was stopped
+                closeConnection(connection);
+                return;
+            }
+        }
+    }
+
+    private void serveConnection(Socket connection) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+            Writer writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), "UTF-8"));
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(score(line));
+                writer.write('\n');
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // Connection was closed by the client or by the server
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    private static void closeConnection(Socket connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Connection is already closed
+        }
+    }
+
+    /**
+     * Classify an instance from a request line.
+     * @param line - request line
+     * @return response line
+     */
+    private String score(String line) {
+        try {
+            Instance instance = ScoringProtocol.parseInstance(line, this.header);
+            double[] distribution = this.service.submit(instance, this.submitTimeout, TimeUnit.MILLISECONDS).get();
+            return ScoringProtocol.formatDistribution(distribution);
+        } catch (RejectedExecutionException e) {
+            return ScoringProtocol.REJECTED + " " + e.getMessage();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                return ScoringProtocol.REJECTED + " " + e.getCause().getMessage();
+            }
+            return ScoringProtocol.ERROR + " " + e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ScoringProtocol.ERROR + " Server is stopped";
+        } catch (IllegalArgumentException e) {
+            return ScoringProtocol.ERROR + " " + e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.meta.serving;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import weka.classifiers.meta.MultiStageCascading;
+import weka.core.Instance;
+
+/**
+ * Embeddable service that classifies instances with a built MultiStage Cascading
+ * classifier. Submitted instances are put into a bounded queue and a single
+ * dispatcher thread gathers them into micro-batches. A batch is dispatched when
+ * it reaches the maximal size or when the first instance of the batch has waited
+ * for the maximal batch delay. Each batch is classified stage by stage with
+ * {@link MultiStageCascading#distributionsForInstances(Instance[])}. If a batch
+ * cannot be classified, its instances are classified one by one and only requests
+ * of instances that fail are failed.
+ * <p/>
+ * If the queue is full, a submitting thread waits up to the given timeout
+ * (backpressure) and the instance is rejected if the queue is still full.
+ * Instances that have waited in the queue longer than the maximal queue time
+ * are rejected without classification (load shedding).
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class CascadeScoringService {
+
+    // Classifier that is used for scoring. It is used only by the dispatcher thread
+    private final MultiStageCascading cascade;
+    // Maximal number of instances in a batch. Can be changed while the dispatcher thread is running
+    private volatile int maxBatchSize = 32;
+    // Maximal time to wait for a batch to be filled, in milliseconds
+    private volatile long maxBatchDelay = 5;
+    // Maximal number of instances waiting in the queue. It is used only when the service is started
+    private int queueCapacity = 1024;
+    // Maximal time an instance can wait in the queue, in milliseconds. 0 disables load shedding
+    private volatile long maxQueueTime = 0;
+
+    // Instances waiting for classification. A new queue is created each time the service is started
+    private volatile BlockingQueue<ScoringRequest> queue;
+    // Thread that gathers batches and classifies them
+    private Thread dispatcher;
+    // Flag that shows that service accepts new instances
+    private volatile boolean running = false;
+
+    // Statistics of the service
+    private final AtomicLong numAccepted = new AtomicLong();
+    private final AtomicLong numRejected = new AtomicLong();
+    private final AtomicLong numShed = new AtomicLong();
+    private final AtomicLong numBatches = new AtomicLong();
+
+    /**
+     * Create a scoring service.
+     * @param cascade - built classifier that will be used for scoring
+     */
+    public CascadeScoringService(MultiStageCascading cascade) {
+        this.cascade = cascade;
+    }
+
+    /**
+     * Start the dispatcher thread.
+     * @throws IllegalStateException if service is already running
+     */
+    public synchronized void start() {
+        if (this.running) {
+            throw new IllegalStateException("Scoring service is already running");
+        }
+
+        this.queue = new ArrayBlockingQueue<ScoringRequest>(this.queueCapacity);
+        this.running = true;
+        this.dispatcher = new Thread(new Runnable() {
+
+            public void run() {
+                dispatchLoop();
+            }
+        }, "cascade-scoring-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Stop the dispatcher thread. Instances that were not classified are rejected.
+     * @throws InterruptedException if interrupted while waiting for the dispatcher thread
+     */
+    public synchronized void shutdown() throws InterruptedException {
+        if (!this.running) {
+            return;
+        }
+
+        this.running = false;
+        this.dispatcher.interrupt();
+        this.dispatcher.join();
+
+        List<ScoringRequest> remaining = new ArrayList<ScoringRequest>();
+        this.queue.drainTo(remaining);
+        rejectAll(remaining, "Scoring service is shut down");
+    }
+
+    /**
+     * Submit an instance for classification without waiting for a free place in the queue.
+     * @param instance - instance to classify
+     * @return future distribution of probabilities for the instance
+     * @throws RejectedExecutionException if the queue is full or service is not running
+     */
+    public Future<double[]> submit(Instance instance) {
+        try {
+            return submit(instance, 0, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while submitting an instance");
+        }
+    }
+
+    /**
+     * Submit an instance for classification.
+     * @param instance - instance to classify
+     * @param timeout - how long to wait for a free place in the queue
+     * @param unit - unit of the timeout
+     * @return future distribution of probabilities for the instance
+     * @throws RejectedExecutionException if the queue is still full after the timeout
+     * or service is not running
+     * @throws InterruptedException if interrupted while waiting for a free place in the queue
+     */
+    public Future<double[]> submit(Instance instance, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!this.running) {
+            throw new RejectedExecutionException("Scoring service is not running");
+        }
+
+        BlockingQueue<ScoringRequest> requests = this.queue;
+        ScoringRequest request = new ScoringRequest(instance, System.nanoTime());
+        if (!requests.offer(request, timeout, unit)) {
+            this.numRejected.incrementAndGet();
+            throw new RejectedExecutionException("Scoring queue is full");
+        }
+
+        // Service could be shut down while the request was put into the queue. If shutdown
+        // has already rejected requests of the queue, nobody will take this one
+        if ((!this.running || requests != this.queue) && requests.remove(request)) {
+            throw new RejectedExecutionException("Scoring service is not running");
+        }
+
+        this.numAccepted.incrementAndGet();
+        return request;
+    }
+
+    /**
+     * Gather batches and classify them until the service is stopped.
+     */
+    private void dispatchLoop() {
+        List<ScoringRequest> batch = new ArrayList<ScoringRequest>(this.maxBatchSize);
+        while (this.running) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                rejectAll(batch, "Scoring service is shut down");
+                return;
+            }
+
+            dispatchBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Wait for the first instance and then take instances from the queue until
+     * the batch is full or the maximal batch delay is over.
+     * @param batch - list to put instances into
+     * @throws InterruptedException if the service is stopped
+     */
+    private void collectBatch(List<ScoringRequest> batch) throws InterruptedException {
+        batch.add(this.queue.take());
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.maxBatchDelay);
+        while (batch.size() < this.maxBatchSize) {
+            // Take instances that are already in the queue without waiting
+            if (this.queue.drainTo(batch, this.maxBatchSize - batch.size()) > 0) {
+                continue;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+
+            ScoringRequest request = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (request == null) {
+                break;
+            }
+            batch.add(request);
+        }
+    }
+
+    /**
+     * Classify instances of a batch and complete their requests.
+     * @param batch - requests to complete
+     */
+    private void dispatchBatch(List<ScoringRequest> batch) {
+        List<ScoringRequest> accepted = new ArrayList<ScoringRequest>(batch.size());
+        long now = System.nanoTime();
+        for (ScoringRequest request : batch) {
+            if (this.maxQueueTime > 0 && now - request.getEnqueueTime() > TimeUnit.MILLISECONDS.toNanos(this.maxQueueTime)) {
+                this.numShed.incrementAndGet();
+                request.fail(new RejectedExecutionException("Instance waited in the queue longer than "
+                        + this.maxQueueTime + " ms"));
+            } else {
+                accepted.add(request);
+            }
+        }
+
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        Instance[] instances = new Instance[accepted.size()];
+        for (int i = 0; i < instances.length; i++) {
+            instances[i] = accepted.get(i).getInstance();
+        }
+
+        this.numBatches.incrementAndGet();
+        try {
+            double[][] distributions = this.cascade.distributionsForInstances(instances);
+            for (int i = 0; i < distributions.length; i++) {
+                accepted.get(i).complete(distributions[i]);
+            }
+        } catch (Exception e) {
+            // Find instances that could not be classified, so that other requests of the batch succeed
+            for (ScoringRequest request : accepted) {
+                dispatchRequest(request);
+            }
+        }
+    }
+
+    /**
+     * Classify the instance of a single request and complete the request.
+     * @param request - request to complete
+     */
+    private void dispatchRequest(ScoringRequest request) {
+        try {
+            request.complete(this.cascade.distributionsForInstances(new Instance[] {request.getInstance()})[0]);
+        } catch (Exception e) {
+            request.fail(e);
+        }
+    }
+
+    /**
+     * Reject all requests in a list.
+     * @param requests - requests to reject
+     * @param reason - reason of rejection
+     */
+    private void rejectAll(List<ScoringRequest> requests, String reason) {
+        for (ScoringRequest request : requests) {
+            request.fail(new RejectedExecutionException(reason));
+        }
+    }
+
+    /**
+     * Get maximal number of instances in a batch.
+     * @return maximal number of instances in a batch
+     */
+    public int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    /**
+     * Set maximal number of instances in a batch.
+     * @param maxBatchSize - maximal number of instances in a batch
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Get maximal time to wait for a batch to be filled.
+     * @return maximal delay in milliseconds
+     */
+    public long getMaxBatchDelay() {
+        return this.maxBatchDelay;
+    }
+
+    /**
+     * Set maximal time to wait for a batch to be filled.
+     * @param maxBatchDelay - maximal delay in milliseconds
+     */
+    public void setMaxBatchDelay(long maxBatchDelay) {
+        this.maxBatchDelay = maxBatchDelay;
+    }
+
+    /**
+     * Get maximal number of instances waiting in the queue.
+     * @return capacity of the queue
+     */
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    /**
+     * Set maximal number of instances waiting in the queue. Takes effect when the service is started.
+     * @param queueCapacity - capacity of the queue
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Get maximal time an instance can wait in the queue.
+     * @return maximal time in milliseconds, 0 if load shedding is disabled
+     */
+    public long getMaxQueueTime() {
+        return this.maxQueueTime;
+    }
+
+    /**
+     * Set maximal time an instance can wait in the queue before it is rejected.
+     * @param maxQueueTime - maximal time in milliseconds, 0 to disable load shedding
+     */
+    public void setMaxQueueTime(long maxQueueTime) {
+        this.maxQueueTime = maxQueueTime;
+    }
+
+    /**
+     * Get number of instances accepted into the queue.
+     * @return number of accepted instances
+     */
+    public long getNumAccepted() {
+        return this.numAccepted.get();
+    }
+
+    /**
+     * Get number of instances rejected because the queue was full.
+     * @return number of rejected instances
+     */
+    public long getNumRejected() {
+        return this.numRejected.get();
+    }
+
+    /**
+     * Get number of instances rejected because they waited in the queue too long.
+     * @return number of shed instances
+     */
+    public long getNumShed() {
+        return this.numShed.get();
+    }
+
+    /**
+     * Get number of classified batches.
+     * @return number of batches
+     */
+    public long getNumBatches() {
+        return this.numBatches.get();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.meta.serving;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import weka.core.Instance;
+
+/**
+ * Client that submits instances directly to a scoring service in the same JVM.
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class InProcessScoringClient implements ScoringClient {
+
+    private final CascadeScoringService service;
+    // How long to wait for a free place in the queue of the service, in milliseconds
+    private final long submitTimeout;
+
+    /**
+     * Create a client.
+     * @param service - started scoring service
+     * @param submitTimeout - how long to wait for a free place in the queue, in milliseconds
+     */
+    public InProcessScoringClient(CascadeScoringService service, long submitTimeout) {
+        this.service = service;
+        this.submitTimeout = submitTimeout;
+    }
+
+    public double[] score(Instance instance) throws Exception {
+        try {
+            return this.service.submit(instance, this.submitTimeout, TimeUnit.MILLISECONDS).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public void close() {
+    }
+}
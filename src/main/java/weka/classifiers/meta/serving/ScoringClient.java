@@ -0,0 +1,42 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.meta.serving;
+
+import java.io.IOException;
+import weka.core.Instance;
+
+/**
+ * Client of the scoring service. A client is used by one thread at a time.
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public interface ScoringClient {
+
+    /**
+     * Classify an instance and wait for the result.
+     * @param instance - instance to classify
+     * @return distribution of probabilities for the instance
+     * @throws java.util.concurrent.RejectedExecutionException if the service rejected the instance
+     * @throws Exception if the instance could not be classified
+     */
+    double[] score(Instance instance) throws Exception;
+
+    /**
+     * Release resources of the client.
+     * @throws IOException if resources cannot be released
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,128 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.meta.serving;
+
+import java.util.concurrent.RejectedExecutionException;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Line based protocol of the scoring server. A request is a line with
+ * comma separated values of all attributes in the order of the header.
+ * Values are internal Weka values: numbers for numeric attributes, indices of
+ * values for nominal attributes and "?" for missing values.
+ * A response is a line "OK" followed by comma separated probabilities, or
+ * "REJECTED" or "ERROR" followed by the reason.
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+class ScoringProtocol {
+
+    static final String OK = "OK";
+    static final String REJECTED = "REJECTED";
+    static final String ERROR = "ERROR";
+
+    private static final String MISSING = "?";
+    private static final String SEPARATOR = ",";
+
+    private ScoringProtocol() {
+    }
+
+    /**
+     * Convert an instance into a request line.
+     * @param instance - instance to convert
+     * @return request line
+     */
+    static String formatInstance(Instance instance) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < instance.numAttributes(); i++) {
+            if (i > 0) {
+                line.append(SEPARATOR);
+            }
+            if (instance.isMissing(i)) {
+                line.append(MISSING);
+            } else {
+                line.append(instance.value(i));
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Convert a request line into an instance.
+     * @param line - request line
+     * @param header - header of the instances the classifier was built on
+     * @return instance with the header as its dataset
+     * @throws IllegalArgumentException if the line does not match the header
+     */
+    static Instance parseInstance(String line, Instances header) {
+        String[] values = line.split(SEPARATOR);
+        if (values.length != header.numAttributes()) {
+            throw new IllegalArgumentException("Expected " + header.numAttributes()
+                    + " values, but got " + values.length);
+        }
+
+        double[] attributeValues = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            String value = values[i].trim();
+            attributeValues[i] = MISSING.equals(value) ? Instance.missingValue() : Double.parseDouble(value);
+        }
+
+        Instance instance = new Instance(1, attributeValues);
+        instance.setDataset(header);
+        return instance;
+    }
+
+    /**
+     * Convert a distribution of probabilities into a response line.
+     * @param distribution - distribution of probabilities
+     * @return response line
+     */
+    static String formatDistribution(double[] distribution) {
+        StringBuilder line = new StringBuilder(OK);
+        for (int i = 0; i < distribution.length; i++) {
+            line.append(i == 0 ? " " : SEPARATOR);
+            line.append(distribution[i]);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Convert a response line into a distribution of probabilities.
+     * @param line - response line
+     * @return distribution of probabilities
+     * @throws RejectedExecutionException if the instance was rejected by the server
+     * @throws Exception if the server failed to classify the instance
+     */
+    static double[] parseDistribution(String line) throws Exception {
+        if (line == null) {
+            throw new Exception("Connection closed by the server");
+        }
+        if (line.startsWith(REJECTED)) {
+            throw new RejectedExecutionException(line.substring(REJECTED.length()).trim());
+        }
+        if (!line.startsWith(OK)) {
+            throw new Exception(line.startsWith(ERROR) ? line.substring(ERROR.length()).trim() : line);
+        }
+
+        String[] values = line.substring(OK.length()).trim().split(SEPARATOR);
+        double[] distribution = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            distribution[i] = Double.parseDouble(values[i]);
+        }
+        return distribution;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.meta.serving;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import weka.core.Instance;
+
+/**
+ * Instance waiting in the queue of the scoring service and the future
+ * distribution of probabilities for it.
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+class ScoringRequest implements Future<double[]> {
+
+    // Instance to classify
+    private final Instance instance;
+    // Time when request was put into the queue, in nanoseconds
+    private final long enqueueTime;
+    // Released when the request is completed or failed
+    private final CountDownLatch done = new CountDownLatch(1);
+    // Result of classification
+    private volatile double[] distribution;
+    // Reason why the instance was not classified
+    private volatile Throwable failure;
+
+    ScoringRequest(Instance instance, long enqueueTime) {
+        this.instance = instance;
+        this.enqueueTime = enqueueTime;
+    }
+
+    Instance getInstance() {
+        return this.instance;
+    }
+
+    long getEnqueueTime() {
+        return this.enqueueTime;
+    }
+
+    /**
+     * Set result of classification and wake up waiting threads.
+     * @param distribution - distribution of probabilities for the instance
+     */
+    void complete(double[] distribution) {
+        this.distribution = distribution;
+        this.done.countDown();
+    }
+
+    /**
+     * Set reason of failure and wake up waiting threads.
+     * @param failure - reason why the instance was not classified
+     */
+    void fail(Throwable failure) {
+        this.failure = failure;
+        this.done.countDown();
+    }
+
+    /**
+     * Requests cannot be cancelled after they were accepted by the service.
+     * @return false
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    public boolean isCancelled() {
+        return false;
+    }
+
+    public boolean isDone() {
+        return this.done.getCount() == 0;
+    }
+
+    public double[] get() throws InterruptedException, ExecutionException {
+        this.done.await();
+        return result();
+    }
+
+    public double[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!this.done.await(timeout, unit)) {
+            throw new TimeoutException("Instance was not classified in " + timeout + " " + unit);
+        }
+        return result();
+    }
+
+    private double[] result() throws ExecutionException {
+        if (this.failure != null) {
+            throw new ExecutionException(this.failure);
+        }
+        return this.distribution;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.meta.serving;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import weka.core.Instance;
+
+/**
+ * Client that sends instances to a scoring server over a socket connection.
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class SocketScoringClient implements ScoringClient {
+
+    private final Socket socket;
+    private final BufferedReader reader;
+    private final Writer writer;
+
+    /**
+     * Connect to a scoring server.
+     * @param host - host of the server
+     * @param port - port of the server
+     * @throws IOException if connection cannot be opened
+     */
+    public SocketScoringClient(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.reader = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), "UTF-8"));
+        this.writer = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream(), "UTF-8"));
+    }
+
+    public double[] score(Instance instance) throws Exception {
+        this.writer.write(ScoringProtocol.formatInstance(instance));
+        this.writer.write('\n');
+        this.writer.flush();
+
+        return ScoringProtocol.parseDistribution(this.reader.readLine());
+    }
+
+    public void close() throws IOException {
+        this.socket.close();
+    }
+}
@@ -0,0 +1,810 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.core.neighboursearch;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Vector;
+import weka.core.Attribute;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ <!-- globalinfo-start -->
+ * Exact nearest neighbour search for sparse numeric data. Euclidean distance is
+ * computed as |q|^2 + |x|^2 - 2 q.x, where the dot product is accumulated from an
+ * inverted index over the non-zero values of the query, so the cost of a query
+ * depends on the number of non-zero values rather than on the number of attributes.
+ * Distances of the closest candidates are then computed in the same way as
+ * EuclideanDistance does, and instances tied with the k-th neighbour are returned
+ * as well, so the result is the same as the result of LinearNNSearch.
+ * Falls back to linear search if data contains non-numeric attributes or missing values,
+ * if the distance function is not EuclideanDistance over all attributes or if identical
+ * instances are skipped.
+ * <p/>
+ <!-- globalinfo-end -->
+ *
+ <!-- options-start -->
+ * Valid options are: <p/>
+ *
+ * <pre> -S
+ *  Skip identical instances (distances equal to zero).
+ * </pre>
+ *
+ <!-- options-end -->
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class InvertedIndexNNSearch extends NearestNeighbourSearch {
+
+    /**
+     * for serialization
+     */
+    static final long serialVersionUID = -4921380586420547310L;
+
+    // Initial capacity of a posting list
+    private static final int INITIAL_POSTINGS_CAPACITY = 4;
+    // Relative rounding error of distances computed from dot products
+    private static final double DOT_PRODUCT_TOLERANCE = 1e-9;
+
+    // Instance numbers for every non-zero value of an attribute
+    private int[][] postingInstances;
+    // Non-zero values of an attribute in the same order as instance numbers
+    private double[][] postingValues;
+    // Number of elements in each posting list
+    private int[] postingSizes;
+    // Minimal non-zero value of each attribute, NaN if there are no such values
+    private double[] minValues;
+    // Maximal non-zero value of each attribute, NaN if there are no such values
+    private double[] maxValues;
+    // Number of explicit (non-zero) values of each attribute in indexed instances
+    private int[] explicitValues;
+    // Flag for each attribute that shows that zero is in the range of the attribute
+    private boolean[] zeroInRange;
+    // Attributes whose range does not include zero yet
+    private int[] attributesWithoutZero;
+    // Minimum of the range of each attribute, as in EuclideanDistance
+    private double[] rangeMin;
+    // Width of the range of each attribute, as in EuclideanDistance
+    private double[] rangeWidth;
+    // Squared weight of each attribute used in distance calculation
+    private double[] squaredWeights;
+    // Weighted squared norm of each indexed instance
+    private double[] norms;
+    // Indexed instances sorted by their norm
+    private int[] instancesByNorm;
+    // Flag that shows that weights and norms should be recalculated
+    private boolean normsChanged;
+    // Linear search that is used if data cannot be processed by inverted index
+    private LinearNNSearch fallbackSearch;
+    // Distances to the neighbours found by the last search
+    private double[] distances;
+    // Flag that shows that identical instances are skipped as in LinearNNSearch
+    private boolean skipIdentical;
+
+    public InvertedIndexNNSearch() {
+        super();
+    }
+
+    public InvertedIndexNNSearch(Instances instances) throws Exception {
+        this();
+        setInstances(instances);
+    }
+
+    @Override
+    public String globalInfo() {
+        return "Exact nearest neighbour search for sparse numeric data. Euclidean distance is "
+                + "computed as |q|^2 + |x|^2 - 2 q.x, where the dot product is accumulated from "
+                + "an inverted index over the non-zero values of the query, so the cost of a query "
+                + "depends on the number of non-zero values rather than on the number of attributes. "
+                + "Distances of the closest candidates are then computed in the same way as "
+                + "EuclideanDistance does, and instances tied with the k-th neighbour are returned "
+                + "as well, so the result is the same as the result of LinearNNSearch. "
+                + "Falls back to linear search if data contains non-numeric attributes or missing values, "
+                + "if the distance function is not EuclideanDistance over all attributes or if identical "
+                + "instances are skipped.";
+    }
+
+    /**
+     * Returns an enumeration describing the available options.
+     * @return an enumeration of all the available options.
+     */
+    @Override
+    public Enumeration listOptions() {
+        Vector newVector = new Vector();
+
+        newVector.addElement(new Option(
+                "\tSkip identical instances (distances equal to zero).\n",
+                "S", 0, "-S"));
+
+        Enumeration enu = super.listOptions();
+        while (enu.hasMoreElements()) {
+            newVector.addElement(enu.nextElement());
+        }
+
+        return newVector.elements();
+    }
+
+    /**
+     * Parses a given list of options.
+     *
+     <!-- options-start -->
+     * Valid options are: <p/>
+     *
+     * <pre> -S
+     *  Skip identical instances (distances equal to zero).
+     * </pre>
+     *
+     <!-- options-end -->
+     *
+     * @param options - the list of options as an array of strings
+     * @throws Exception if an option is not supported
+     */
+    @Override
+    public void setOptions(String[] options) throws Exception {
+        super.setOptions(options);
+
+        setSkipIdentical(Utils.getFlag('S', options));
+    }
+
+    /**
+     * Gets the current settings of the search.
+     * @return an array of strings suitable for passing to setOptions
+     */
+    @Override
+    public String[] getOptions() {
+        Vector result = new Vector();
+        String[] options = super.getOptions();
+        for (int i = 0; i < options.length; i++) {
+            result.add(options[i]);
+        }
+
+        if (getSkipIdentical()) {
+            result.add("-S");
+        }
+
+        return (String[]) result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for displaying in the explorer/experimenter gui
+     */
+    public String skipIdenticalTipText() {
+        return "Whether to skip identical instances (with distance 0 to the target). "
+                + "Linear search is used if they are skipped.";
+    }
+
+    /**
+     * Sets the property to skip identical instances (with distance zero from the target).
+     * Linear search is used if identical instances are skipped.
+     * @param skip - true if identical instances should be skipped
+     */
+    public void setSkipIdentical(boolean skip) {
+        this.skipIdentical = skip;
+        if (this.fallbackSearch != null) {
+            this.fallbackSearch.setSkipIdentical(skip);
+        }
+    }
+
+    /**
+     * Gets whether identical instances are skipped.
+     * @return true if identical instances are skipped
+     */
+    public boolean getSkipIdentical() {
+        return this.skipIdentical;
+    }
+
+    @Override
+    public void setInstances(Instances instances) throws Exception {
+        super.setInstances(instances);
+        this.fallbackSearch = null;
+        this.distances = null;
+
+        if (!canBeIndexed(instances)) {
+            this.postingInstances = null;
+            getFallbackSearch();
+            return;
+        }
+
+        int numAttributes = instances.numAttributes();
+        this.postingInstances = new int[numAttributes][];
+        this.postingValues = new double[numAttributes][];
+        this.postingSizes = new int[numAttributes];
+        this.minValues = new double[numAttributes];
+        this.maxValues = new double[numAttributes];
+        Arrays.fill(this.minValues, Double.NaN);
+        Arrays.fill(this.maxValues, Double.NaN);
+        this.explicitValues = new int[numAttributes];
+        this.zeroInRange = new boolean[numAttributes];
+        this.norms = new double[0];
+
+        for (int i = 0; i < instances.numInstances(); i++) {
+            indexInstance(instances.instance(i), i);
+        }
+
+        this.normsChanged = true;
+    }
+
+    @Override
+    public void update(Instance instance) throws Exception {
+        if (this.m_Instances == null) {
+            throw new Exception("No instances supplied yet. Cannot update without"
+                    + " supplying a set of instances first.");
+        }
+
+        if (this.postingInstances == null) {
+            getFallbackSearch().update(instance);
+            return;
+        }
+
+        if (!canBeIndexed(instance)) {
+            // Index cannot be used any more, switch to linear search for all instances
+            this.postingInstances = null;
+            this.fallbackSearch = null;
+            getFallbackSearch();
+            return;
+        }
+
+        // Instance is added to m_Instances by the classifier before update is called
+        indexInstance(instance, this.m_Instances.numInstances() - 1);
+        this.normsChanged = true;
+
+        if (this.fallbackSearch != null) {
+            this.fallbackSearch.update(instance);
+        }
+    }
+
+    /**
+     * Update ranges of attributes with a target instance, as LinearNNSearch does
+     * before IBk searches for neighbours of the instance.
+     * @param instance - target instance
+     */
+    @Override
+    public void addInstanceInfo(Instance instance) {
+        if (this.m_Instances == null) {
+            return;
+        }
+
+        if (!canUseIndex() || !canBeIndexed(instance)) {
+            // Instance will be processed by linear search
+            try {
+                getFallbackSearch().addInstanceInfo(instance);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            if (this.postingInstances == null) {
+                return;
+            }
+        } else if (this.fallbackSearch != null) {
+            this.fallbackSearch.addInstanceInfo(instance);
+        }
+
+        if (this.normsChanged) {
+            calculateNorms();
+        }
+
+        int classIndex = this.m_Instances.classIndex();
+        for (int v = 0; v < instance.numValues(); v++) {
+            int attribute = instance.index(v);
+            double value = instance.valueSparse(v);
+            if (attribute != classIndex && value != 0 && !Instance.isMissingValue(value)) {
+                this.normsChanged |= updateRange(attribute, value);
+            }
+        }
+
+        for (int attribute : this.attributesWithoutZero) {
+            if (instance.value(attribute) == 0) {
+                this.zeroInRange[attribute] = true;
+                this.normsChanged = true;
+            }
+        }
+    }
+
+    @Override
+    public Instance nearestNeighbour(Instance target) throws Exception {
+        return kNearestNeighbours(target, 1).instance(0);
+    }
+
+    @Override
+    public Instances kNearestNeighbours(Instance target, int k) throws Exception {
+        if (!canUseIndex() || !canBeIndexed(target)) {
+            Instances neighbours = getFallbackSearch().kNearestNeighbours(target, k);
+            this.distances = getFallbackSearch().getDistances();
+            return neighbours;
+        }
+
+        if (this.normsChanged) {
+            calculateNorms();
+        }
+
+        int numInstances = this.m_Instances.numInstances();
+        if (k <= 0 || numInstances == 0) {
+            this.distances = new double[0];
+            return new Instances(this.m_Instances, 0);
+        }
+
+        // Buffers are allocated for each query, so concurrent queries do not share them
+        double[] dotProducts = new double[numInstances];
+        boolean[] touched = new boolean[numInstances];
+        int[] touchedInstances = new int[numInstances];
+
+        // Accumulate dot products of the target and instances that share non-zero attributes
+        int classIndex = this.m_Instances.classIndex();
+        double targetNorm = 0;
+        int numTouched = 0;
+        for (int v = 0; v < target.numValues(); v++) {
+            int attribute = target.index(v);
+            double value = target.valueSparse(v);
+            if (attribute == classIndex || value == 0 || this.squaredWeights[attribute] == 0) {
+                continue;
+            }
+
+            double weightedValue = value * this.squaredWeights[attribute];
+            targetNorm += weightedValue * value;
+
+            int[] instances = this.postingInstances[attribute];
+            double[] values = this.postingValues[attribute];
+            for (int p = 0; p < this.postingSizes[attribute]; p++) {
+                int instance = instances[p];
+                if (!touched[instance]) {
+                    touched[instance] = true;
+                    touchedInstances[numTouched++] = instance;
+                }
+                dotProducts[instance] += weightedValue * values[p];
+            }
+        }
+
+        // Find approximate distance to the k-th neighbour
+        NeighbourHeap heap = new NeighbourHeap(k);
+        for (int t = 0; t < numTouched; t++) {
+            int instance = touchedInstances[t];
+            if (this.m_Instances.instance(instance) != target) {
+                heap.offer(targetNorm + this.norms[instance] - 2 * dotProducts[instance]);
+            }
+        }
+
+        // Distance to an instance without common attributes depends only on its norm,
+        // so it is enough to check such instances in the order of increasing norm
+        for (int n = 0; n < numInstances; n++) {
+            int instance = this.instancesByNorm[n];
+            double distance = targetNorm + this.norms[instance];
+            if (heap.isFull() && distance >= heap.maxDistance()) {
+                break;
+            }
+            if (!touched[instance] && this.m_Instances.instance(instance) != target) {
+                heap.offer(distance);
+            }
+        }
+
+        // Candidates are all instances that can be as close as the k-th neighbour
+        // taking into account rounding errors of dot products
+        double maxNorm = this.norms[this.instancesByNorm[numInstances - 1]];
+        double threshold = heap.isFull()
+                ? heap.maxDistance() + DOT_PRODUCT_TOLERANCE * (1 + targetNorm + maxNorm)
+                : Double.POSITIVE_INFINITY;
+
+        int[] candidates = new int[Math.max(k, 16)];
+        int numCandidates = 0;
+        for (int t = 0; t < numTouched; t++) {
+            int instance = touchedInstances[t];
+            if (targetNorm + this.norms[instance] - 2 * dotProducts[instance] <= threshold
+                    && this.m_Instances.instance(instance) != target) {
+                candidates = addCandidate(candidates, numCandidates++, instance);
+            }
+        }
+        for (int n = 0; n < numInstances; n++) {
+            int instance = this.instancesByNorm[n];
+            if (targetNorm + this.norms[instance] > threshold) {
+                break;
+            }
+            if (!touched[instance] && this.m_Instances.instance(instance) != target) {
+                candidates = addCandidate(candidates, numCandidates++, instance);
+            }
+        }
+
+        // Exact distances decide the order and ties as in LinearNNSearch
+        double[] candidateDistances = new double[numCandidates];
+        for (int c = 0; c < numCandidates; c++) {
+            candidateDistances[c] = squaredDistance(target, this.m_Instances.instance(candidates[c]));
+        }
+        int[] order = Utils.sort(candidateDistances);
+
+        int numNeighbours = Math.min(k, numCandidates);
+        if (numNeighbours > 0) {
+            double kthDistance = candidateDistances[order[numNeighbours - 1]];
+            while (numNeighbours < numCandidates && candidateDistances[order[numNeighbours]] == kthDistance) {
+                numNeighbours++;
+            }
+        }
+
+        Instances neighbours = new Instances(this.m_Instances, numNeighbours);
+        this.distances = new double[numNeighbours];
+        for (int i = 0; i < numNeighbours; i++) {
+            neighbours.add(this.m_Instances.instance(candidates[order[i]]));
+            this.distances[i] = Math.sqrt(candidateDistances[order[i]]);
+        }
+
+        return neighbours;
+    }
+
+    @Override
+    public double[] getDistances() throws Exception {
+        if (this.distances == null) {
+            throw new Exception("No distances available. Please call either "
+                    + "kNearestNeighbours or nearestNeighbours first.");
+        }
+        return this.distances;
+    }
+
+    @Override
+    public String getRevision() {
+        return RevisionUtils.extract("$Revision: 1.0 $");
+    }
+
+    /**
+     * Check if the inverted index is built and the settings of the search allow to use it.
+     * Options can be changed after the index is built, so they are checked for each query.
+     * @return true if neighbours can be found with the inverted index
+     */
+    private boolean canUseIndex() {
+        return this.postingInstances != null && canBeIndexedWithOptions();
+    }
+
+    /**
+     * Check if the distance function and options of the search can be reproduced by
+     * the inverted index.
+     * @return true if the distance is EuclideanDistance over all attributes and
+     * identical instances are not skipped
+     */
+    private boolean canBeIndexedWithOptions() {
+        if (this.skipIdentical || !(this.m_DistanceFunction instanceof EuclideanDistance)) {
+            return false;
+        }
+
+        EuclideanDistance distance = (EuclideanDistance) this.m_DistanceFunction;
+        return !distance.getInvertSelection() && "first-last".equals(distance.getAttributeIndices());
+    }
+
+    /**
+     * Check if instances can be processed by the inverted index.
+     * @param instances - instances to check
+     * @return true if the options allow to use the index, all attributes are numeric
+     * and there are no missing values
+     */
+    private boolean canBeIndexed(Instances instances) {
+        if (!canBeIndexedWithOptions()) {
+            return false;
+        }
+
+        for (int i = 0; i < instances.numAttributes(); i++) {
+            Attribute attribute = instances.attribute(i);
+            if (i != instances.classIndex() && !attribute.isNumeric()) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < instances.numInstances(); i++) {
+            if (!canBeIndexed(instances.instance(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if an instance can be processed by the inverted index.
+     * @param instance - instance to check
+     * @return true if the instance has no missing values
+     */
+    private boolean canBeIndexed(Instance instance) {
+        int classIndex = this.m_Instances.classIndex();
+        for (int v = 0; v < instance.numValues(); v++) {
+            if (instance.index(v) != classIndex && instance.isMissingSparse(v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add non-zero values of an instance to the inverted index and update ranges of attributes.
+     * @param instance - instance to add
+     * @param instanceNumber - number of the instance in the indexed instances
+     */
+    private void indexInstance(Instance instance, int instanceNumber) {
+        int classIndex = this.m_Instances.classIndex();
+        for (int v = 0; v < instance.numValues(); v++) {
+            int attribute = instance.index(v);
+            double value = instance.valueSparse(v);
+            if (attribute == classIndex || value == 0) {
+                continue;
+            }
+
+            addPosting(attribute, instanceNumber, value);
+            updateRange(attribute, value);
+            this.explicitValues[attribute]++;
+        }
+    }
+
+    /**
+     * Extend the range of an attribute with a non-zero value.
+     * @param attribute - index of the attribute
+     * @param value - non-zero value of the attribute
+     * @return true if the range was changed
+     */
+    private boolean updateRange(int attribute, double value) {
+        if (Double.isNaN(this.minValues[attribute])) {
+            this.minValues[attribute] = value;
+            this.maxValues[attribute] = value;
+            return true;
+        }
+        if (value < this.minValues[attribute]) {
+            this.minValues[attribute] = value;
+            return true;
+        }
+        if (value > this.maxValues[attribute]) {
+            this.maxValues[attribute] = value;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add a candidate neighbour to an array, growing it if it is full.
+     * @param candidates - array of candidates
+     * @param position - position of the new candidate
+     * @param instance - number of the candidate instance
+     * @return array of candidates
+     */
+    private static int[] addCandidate(int[] candidates, int position, int instance) {
+        if (position == candidates.length) {
+            candidates = Arrays.copyOf(candidates, 2 * position);
+        }
+        candidates[position] = instance;
+        return candidates;
+    }
+
+    /**
+     * Compute squared distance between two instances in the same order of
+     * operations as NormalizableDistance does, so equal distances are
+     * found equal by both searches.
+     * @param first - target instance
+     * @param second - indexed instance
+     * @return squared Euclidean distance
+     */
+    private double squaredDistance(Instance first, Instance second) {
+        int classIndex = this.m_Instances.classIndex();
+        int firstNumValues = first.numValues();
+        int secondNumValues = second.numValues();
+
+        double distance = 0;
+        for (int p1 = 0, p2 = 0; p1 < firstNumValues || p2 < secondNumValues;) {
+            int firstI = p1 < firstNumValues ? first.index(p1) : Integer.MAX_VALUE;
+            int secondI = p2 < secondNumValues ? second.index(p2) : Integer.MAX_VALUE;
+
+            if (firstI == classIndex) {
+                p1++;
+                continue;
+            }
+            if (secondI == classIndex) {
+                p2++;
+                continue;
+            }
+
+            double diff;
+            if (firstI == secondI) {
+                diff = difference(firstI, first.valueSparse(p1), second.valueSparse(p2));
+                p1++;
+                p2++;
+            } else if (firstI > secondI) {
+                diff = difference(secondI, 0, second.valueSparse(p2));
+                p2++;
+            } else {
+                diff = difference(firstI, first.valueSparse(p1), 0);
+                p1++;
+            }
+            distance += diff * diff;
+        }
+
+        return distance;
+    }
+
+    /**
+     * Difference of two values of an attribute, normalized as in EuclideanDistance.
+     */
+    private double difference(int attribute, double first, double second) {
+        if (((EuclideanDistance) this.m_DistanceFunction).getDontNormalize()) {
+            return first - second;
+        }
+        return norm(first, attribute) - norm(second, attribute);
+    }
+
+    /**
+     * Normalize a value of an attribute to [0, 1] as in EuclideanDistance.
+     */
+    private double norm(double value, int attribute) {
+        if (Double.isNaN(this.rangeMin[attribute]) || this.rangeWidth[attribute] == 0) {
+            return 0;
+        }
+        return (value - this.rangeMin[attribute]) / this.rangeWidth[attribute];
+    }
+
+    /**
+     * Add a value to the posting list of an attribute.
+     * @param attribute - index of the attribute
+     * @param instanceNumber - number of the instance that has the value
+     * @param value - non-zero value of the attribute
+     */
+    private void addPosting(int attribute, int instanceNumber, double value) {
+        int size = this.postingSizes[attribute];
+        if (this.postingInstances[attribute] == null) {
+            this.postingInstances[attribute] = new int[INITIAL_POSTINGS_CAPACITY];
+            this.postingValues[attribute] = new double[INITIAL_POSTINGS_CAPACITY];
+        } else if (size == this.postingInstances[attribute].length) {
+            this.postingInstances[attribute] = Arrays.copyOf(this.postingInstances[attribute], 2 * size);
+            this.postingValues[attribute] = Arrays.copyOf(this.postingValues[attribute], 2 * size);
+        }
+
+        this.postingInstances[attribute][size] = instanceNumber;
+        this.postingValues[attribute][size] = value;
+        this.postingSizes[attribute] = size + 1;
+    }
+
+    /**
+     * Calculate ranges and weights of attributes and norms of all indexed instances.
+     * Weights normalize attributes by their range in the same way as EuclideanDistance
+     * does. Minimum of the range is cancelled out in the difference of two values,
+     * so sparsity of the data is preserved.
+     */
+    private void calculateNorms() {
+        int numInstances = this.m_Instances.numInstances();
+        int numAttributes = this.postingSizes.length;
+        boolean normalize = !((EuclideanDistance) this.m_DistanceFunction).getDontNormalize();
+
+        this.rangeMin = new double[numAttributes];
+        this.rangeWidth = new double[numAttributes];
+        this.squaredWeights = new double[numAttributes];
+        int numWithoutZero = 0;
+        int[] withoutZero = new int[numAttributes];
+        for (int a = 0; a < numAttributes; a++) {
+            // Instances without explicit value of the attribute have zero value
+            if (this.explicitValues[a] < numInstances) {
+                this.zeroInRange[a] = true;
+            }
+
+            double min = this.minValues[a];
+            double max = this.maxValues[a];
+            if (this.zeroInRange[a]) {
+                min = Double.isNaN(min) ? 0 : Math.min(min, 0);
+                max = Double.isNaN(max) ? 0 : Math.max(max, 0);
+            } else if (a != this.m_Instances.classIndex()) {
+                withoutZero[numWithoutZero++] = a;
+            }
+            this.rangeMin[a] = min;
+            this.rangeWidth[a] = max - min;
+
+            if (!normalize) {
+                this.squaredWeights[a] = 1;
+            } else if (Double.isNaN(min) || max == min) {
+                this.squaredWeights[a] = 0;
+            } else {
+                double range = max - min;
+                this.squaredWeights[a] = 1 / (range * range);
+            }
+        }
+        this.attributesWithoutZero = Arrays.copyOf(withoutZero, numWithoutZero);
+
+        this.norms = new double[numInstances];
+        for (int a = 0; a < numAttributes; a++) {
+            for (int p = 0; p < this.postingSizes[a]; p++) {
+                double value = this.postingValues[a][p];
+                this.norms[this.postingInstances[a][p]] += this.squaredWeights[a] * value * value;
+            }
+        }
+
+        this.instancesByNorm = Utils.sort(this.norms);
+
+        this.normsChanged = false;
+    }
+
+    /**
+     * Get linear search that is used for data that cannot be indexed.
+     * @return linear search over the current instances
+     * @throws Exception if linear search cannot be initialised
+     */
+    private LinearNNSearch getFallbackSearch() throws Exception {
+        if (this.fallbackSearch == null) {
+            this.fallbackSearch = new LinearNNSearch();
+            this.fallbackSearch.setDistanceFunction(this.m_DistanceFunction);
+            this.fallbackSearch.setSkipIdentical(this.skipIdentical);
+            this.fallbackSearch.setInstances(this.m_Instances);
+        }
+        return this.fallbackSearch;
+    }
+
+    /**
+     * Bounded max-heap of distances of the closest instances found so far.
+     */
+    private static class NeighbourHeap {
+
+        private final double[] distances;
+        private int size = 0;
+
+        NeighbourHeap(int capacity) {
+            this.distances = new double[capacity];
+        }
+
+        boolean isFull() {
+            return this.size == this.distances.length;
+        }
+
+        double maxDistance() {
+            return this.distances[0];
+        }
+
+        void offer(double distance) {
+            if (!isFull()) {
+                this.distances[this.size] = distance;
+                siftUp(this.size++);
+            } else if (distance < this.distances[0]) {
+                this.distances[0] = distance;
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (this.distances[parent] >= this.distances[i]) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < this.size && this.distances[left] > this.distances[largest]) {
+                    largest = left;
+                }
+                if (right < this.size && this.distances[right] > this.distances[largest]) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            double distance = this.distances[i];
+            this.distances[i] = this.distances[j];
+            this.distances[j] = distance;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.evaluation;
+
+import java.util.Random;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.meta.MultiStageCascading;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.TestInstances;
+
+/**
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class ParallelCrossValidationTest extends TestCase {
+
+    private Instances data;
+
+    public ParallelCrossValidationTest(String name) { super(name); }
+
+    @Override
+    protected void setUp() throws Exception {
+        TestInstances testInstances = new TestInstances();
+        testInstances.setNumNominal(2);
+        testInstances.setNumNumeric(2);
+        testInstances.setNumInstances(123);
+        this.data = testInstances.generate();
+    }
+
+    public void testEqualsToCrossValidateModel() throws Exception {
+        MultiStageCascading cascade = new MultiStageCascading();
+        cascade.setClassifiers(new Classifier[] {new J48()});
+
+        int[] seeds = new int[] {1, 2, 3};
+        ParallelCrossValidation crossValidation = new ParallelCrossValidation(cascade);
+        crossValidation.setNumThreads(4);
+        Evaluation[] actual = crossValidation.crossValidate(this.data, seeds);
+
+        for (int s = 0; s < seeds.length; s++) {
+            Classifier copy = Classifier.makeCopy(cascade);
+            Evaluation expected = new Evaluation(this.data);
+            expected.crossValidateModel(copy, this.data, 10, new Random(seeds[s]));
+
+            assertEquals(expected.toSummaryString(), actual[s].toSummaryString());
+            assertEquals(expected.toMatrixString(), actual[s].toMatrixString());
+        }
+    }
+
+    public void testClassifierSeedIsNotChanged() throws Exception {
+        MultiStageCascading cascade = new MultiStageCascading();
+        cascade.setClassifiers(new Classifier[] {new J48()});
+        cascade.setSeed(5);
+
+        Evaluation actual = new ParallelCrossValidation(cascade).crossValidate(this.data, 1);
+
+        Evaluation expected = new Evaluation(this.data);
+        expected.crossValidateModel(Classifier.makeCopy(cascade), this.data, 10, new Random(1));
+        assertEquals(expected.toSummaryString(), actual.toSummaryString());
+        assertEquals(5, cascade.getSeed());
+    }
+
+    public void testClassifierSeedIsSetToSeedOfRun() throws Exception {
+        MultiStageCascading cascade = new MultiStageCascading();
+        cascade.setClassifiers(new Classifier[] {new J48()});
+        cascade.setSeed(5);
+
+        ParallelCrossValidation crossValidation = new ParallelCrossValidation(cascade);
+        crossValidation.setSetClassifierSeed(true);
+        Evaluation actual = crossValidation.crossValidate(this.data, 1);
+
+        MultiStageCascading copy = (MultiStageCascading) Classifier.makeCopy(cascade);
+        copy.setSeed(1);
+        Evaluation expected = new Evaluation(this.data);
+        expected.crossValidateModel(copy, this.data, 10, new Random(1));
+        assertEquals(expected.toSummaryString(), actual.toSummaryString());
+    }
+
+    public void testResultsDoNotDependOnNumberOfThreads() throws Exception {
+        ParallelCrossValidation crossValidation = new ParallelCrossValidation(new MultiStageCascading());
+
+        crossValidation.setNumThreads(1);
+        Evaluation sequential = crossValidation.crossValidate(this.data, 7);
+        crossValidation.setNumThreads(8);
+        Evaluation parallel = crossValidation.crossValidate(this.data, 7);
+
+        assertEquals(sequential.toSummaryString(), parallel.toSummaryString());
+    }
+
+    public static Test suite() {
+        return new TestSuite(ParallelCrossValidationTest.class);
+    }
+}
@@ -15,8 +15,14 @@
  */
 package weka.classifiers.meta;
 
+import java.util.concurrent.TimeUnit;
 import weka.classifiers.AbstractClassifierTest;
 import weka.classifiers.Classifier;
+import weka.classifiers.lazy.IBk;
+import weka.classifiers.trees.J48;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -33,4 +39,256 @@ public class MultiStageCascadingTest extends AbstractClassifierTest {
     public Classifier getClassifier() {
         return new MultiStageCascading();
     } 
+
+    public void testRebuildKeepsClassifiersWithinTolerance() throws Exception {
+        Instances data = generateInstances(1);
+        MultiStageCascading cascade = new MultiStageCascading();
+        J48 stage = new J48();
+        cascade.setClassifiers(new Classifier[] {stage});
+        cascade.setWarmStartHistorySize(1000);
+        cascade.buildClassifier(data);
+
+        double[] before = stage.distributionForInstance(data.instance(0));
+
+        // Any change of statistics is within tolerance, so the classifier should be kept
+        cascade.setWarmStartTolerance(1);
+        cascade.rebuildClassifier(generateInstances(2));
+
+        double[] after = stage.distributionForInstance(data.instance(0));
+        for (int i = 0; i < before.length; i++) {
+            assertEquals(before[i], after[i], 0);
+        }
+    }
+
+    public void testRebuildAddsNewInstancesToLastClassifier() throws Exception {
+        CountingIBk kNN = new CountingIBk();
+        MultiStageCascading cascade = createNeverConfidentCascade(kNN);
+        cascade.buildClassifier(generateInstances(1));
+        int numBuildInstances = kNN.numTrainingInstances;
+
+        cascade.setWarmStartTolerance(1);
+        cascade.rebuildClassifier(generateInstances(2));
+
+        // Classifiers are kept, so instances of the first build are not classified again
+        assertEquals(1, kNN.numBuilds);
+        assertTrue(kNN.numTrainingInstances > numBuildInstances);
+        assertTrue(kNN.numTrainingInstances < numBuildInstances + 100);
+    }
+
+    public void testRebuildRetrainsDriftedClassifiers() throws Exception {
+        Instances data = generateInstances(1);
+        Instances newData = generateInstances(2);
+
+        CountingIBk keptKNN = new CountingIBk();
+        MultiStageCascading kept = createNeverConfidentCascade(keptKNN);
+        kept.buildClassifier(data);
+        kept.setWarmStartTolerance(1);
+        kept.rebuildClassifier(newData);
+
+        CountingIBk retrainedKNN = new CountingIBk();
+        MultiStageCascading retrained = createNeverConfidentCascade(retrainedKNN);
+        retrained.buildClassifier(data);
+
+        // Any change of statistics is out of tolerance, so the classifier should be retrained
+        retrained.setWarmStartTolerance(-1);
+        retrained.rebuildClassifier(newData);
+
+        // Residual instances are recomputed with the retrained classifier
+        assertEquals(2, retrainedKNN.numBuilds);
+        // No classifier is confident, so the last classifier is trained on instances of both builds
+        assertEquals(keptKNN.numTrainingInstances, retrainedKNN.numTrainingInstances);
+    }
+
+    public void testDriftedClassifierIsRetrainedOnRecentInstances() throws Exception {
+        CountingJ48 stage = new CountingJ48();
+        MultiStageCascading cascade = new MultiStageCascading();
+        cascade.setClassifiers(new Classifier[] {stage});
+        cascade.setWarmStartHistorySize(1000);
+        cascade.buildClassifier(generateInstances(1));
+        int numBuildInstances = stage.numTrainingInstances;
+
+        cascade.setWarmStartTolerance(-1);
+        cascade.rebuildClassifier(generateInstances(2));
+
+        // Instances of both builds are kept, so the classifier is trained on more instances
+        assertEquals(2, stage.numBuilds);
+        assertTrue(stage.numTrainingInstances > numBuildInstances);
+    }
+
+    public void testWarmStartHistoryIsBounded() throws Exception {
+        CountingJ48 stage = new CountingJ48();
+        MultiStageCascading cascade = new MultiStageCascading();
+        cascade.setClassifiers(new Classifier[] {stage});
+        cascade.setWarmStartHistorySize(10);
+        cascade.buildClassifier(generateInstances(1));
+
+        cascade.setWarmStartTolerance(-1);
+        cascade.rebuildClassifier(generateInstances(2));
+
+        assertEquals(2, stage.numBuilds);
+        assertTrue(stage.numTrainingInstances <= 10);
+    }
+
+    public void testRebuildWithoutWarmStartHistoryFails() throws Exception {
+        MultiStageCascading cascade = new MultiStageCascading();
+        cascade.buildClassifier(generateInstances(1));
+
+        try {
+            cascade.rebuildClassifier(generateInstances(2));
+            fail("Rebuild should fail without warm start history");
+        } catch (Exception e) {
+            // Expected
+        }
+    }
+
+    public void testRebuildWithoutBuildTrainsClassifier() throws Exception {
+        Instances data = generateInstances(1);
+        MultiStageCascading cascade = new MultiStageCascading();
+        cascade.rebuildClassifier(data);
+
+        assertNotNull(cascade.distributionForInstance(data.instance(0)));
+    }
+
+    public void testExhaustedBudgetReturnsBestDistribution() throws Exception {
+        Instances data = generateInstances(1);
+        MultiStageCascading cascade = new MultiStageCascading();
+        J48 stage = new J48();
+        cascade.setClassifiers(new Classifier[] {stage});
+        // Classifier is never confident, so the last classifier would be used without a budget
+        cascade.setConfidenceThresholds("1.0");
+        cascade.buildClassifier(data);
+
+        double[] expected = stage.distributionForInstance(data.instance(0));
+        double[] actual = cascade.distributionForInstance(data.instance(0), 0, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0);
+        }
+        assertEquals(1, cascade.getNumBudgetedPredictions());
+        assertEquals(1, cascade.getNumDegradedPredictions());
+    }
+
+    public void testGenerousBudgetEqualsPredictionWithoutBudget() throws Exception {
+        Instances data = generateInstances(1);
+        MultiStageCascading cascade = new MultiStageCascading();
+        cascade.setClassifiers(new Classifier[] {new J48(), new J48()});
+        cascade.setConfidenceThresholds("0.7,0.9");
+        cascade.buildClassifier(data);
+
+        for (int i = 0; i < data.numInstances(); i++) {
+            double[] expected = cascade.distributionForInstance(data.instance(i));
+            double[] actual = cascade.distributionForInstance(data.instance(i), 1, TimeUnit.HOURS);
+
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals(expected[j], actual[j], 0);
+            }
+        }
+        assertEquals(data.numInstances(), cascade.getNumBudgetedPredictions());
+        assertEquals(0, cascade.getNumDegradedPredictions());
+    }
+
+    public void testMaximalBudgetIsNotExhausted() throws Exception {
+        Instances data = generateInstances(1);
+        MultiStageCascading cascade = createNeverConfidentCascade(new IBk());
+        cascade.buildClassifier(data);
+
+        double[] expected = cascade.distributionForInstance(data.instance(0));
+        double[] actual = cascade.distributionForInstance(data.instance(0), Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0);
+        }
+        assertEquals(0, cascade.getNumDegradedPredictions());
+    }
+
+    public void testSlowLastClassifierIsSkipped() throws Exception {
+        Instances data = generateInstances(1);
+        SlowIBk kNN = new SlowIBk();
+        MultiStageCascading cascade = createNeverConfidentCascade(kNN);
+        cascade.buildClassifier(data);
+        int numMeasuredPredictions = kNN.numPredictions;
+
+        // Time of the last classifier is measured during training and does not decay below it
+        for (int i = 0; i < 50; i++) {
+            cascade.distributionForInstance(data.instance(i), 1, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(numMeasuredPredictions, kNN.numPredictions);
+        assertEquals(50, cascade.getNumDegradedPredictions());
+    }
+
+    /**
+     * Create a cascade with a classifier that is never confident, so all training
+     * instances of the last classifier are used to train it.
+     */
+    private MultiStageCascading createNeverConfidentCascade(IBk kNN) throws Exception {
+        MultiStageCascading cascade = new MultiStageCascading();
+        cascade.setClassifiers(new Classifier[] {new J48()});
+        cascade.setConfidenceThresholds("1.0");
+        cascade.setLastClassifier(kNN);
+        cascade.setWarmStartHistorySize(1000);
+        return cascade;
+    }
+
+    private Instances generateInstances(int seed) throws Exception {
+        TestInstances testInstances = new TestInstances();
+        testInstances.setNumNominal(2);
+        testInstances.setNumNumeric(2);
+        testInstances.setNumInstances(100);
+        testInstances.setSeed(seed);
+        return testInstances.generate();
+    }
+
+    /**
+     * kNN classifier that counts its training instances.
+     */
+    private static class CountingIBk extends IBk {
+
+        int numBuilds;
+        int numTrainingInstances;
+
+        @Override
+        public void buildClassifier(Instances instances) throws Exception {
+            super.buildClassifier(instances);
+            this.numBuilds++;
+            this.numTrainingInstances = instances.numInstances();
+        }
+
+        @Override
+        public void updateClassifier(Instance instance) throws Exception {
+            super.updateClassifier(instance);
+            this.numTrainingInstances++;
+        }
+    }
+
+    /**
+     * Decision tree that counts its training instances.
+     */
+    private static class CountingJ48 extends J48 {
+
+        int numBuilds;
+        int numTrainingInstances;
+
+        @Override
+        public void buildClassifier(Instances instances) throws Exception {
+            super.buildClassifier(instances);
+            this.numBuilds++;
+            this.numTrainingInstances = instances.numInstances();
+        }
+    }
+
+    /**
+     * kNN classifier that takes at least 5 ms to classify an instance.
+     */
+    private static class SlowIBk extends IBk {
+
+        int numPredictions;
+
+        @Override
+        public double[] distributionForInstance(Instance instance) throws Exception {
+            this.numPredictions++;
+            Thread.sleep(5);
+            return super.distributionForInstance(instance);
+        }
+    }
 }
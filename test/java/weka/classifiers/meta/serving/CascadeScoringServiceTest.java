@@ -0,0 +1,301 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.classifiers.meta.serving;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.meta.MultiStageCascading;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.TestInstances;
+
+/**
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class CascadeScoringServiceTest extends TestCase {
+
+    private Instances data;
+    private MultiStageCascading cascade;
+    private CascadeScoringService service;
+    private BlockingCascade blockingCascade;
+
+    public CascadeScoringServiceTest(String name) { super(name); }
+
+    @Override
+    protected void setUp() throws Exception {
+        TestInstances testInstances = new TestInstances();
+        testInstances.setNumNominal(2);
+        testInstances.setNumNumeric(2);
+        testInstances.setNumInstances(100);
+        this.data = testInstances.generate();
+
+        this.cascade = new MultiStageCascading();
+        this.cascade.buildClassifier(this.data);
+
+        this.service = new CascadeScoringService(this.cascade);
+        this.service.setMaxBatchSize(8);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (this.blockingCascade != null) {
+            this.blockingCascade.released.countDown();
+        }
+        this.service.shutdown();
+    }
+
+    public void testBatchesAreClassifiedLikeSingleInstances() throws Exception {
+        this.service.start();
+
+        List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+        for (int i = 0; i < this.data.numInstances(); i++) {
+            results.add(this.service.submit(this.data.instance(i)));
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            double[] expected = this.cascade.distributionForInstance(this.data.instance(i));
+            assertArrayEquals(expected, results.get(i).get());
+        }
+    }
+
+    public void testFailedInstanceDoesNotFailBatch() throws Exception {
+        FailingCascade failingCascade = new FailingCascade();
+        failingCascade.buildClassifier(this.data);
+        this.service = new CascadeScoringService(failingCascade);
+        this.service.setMaxBatchSize(8);
+        // Batch is dispatched when it is full
+        this.service.setMaxBatchDelay(10000);
+        this.service.start();
+
+        Instance badInstance = (Instance) this.data.instance(3).copy();
+        badInstance.setWeight(0);
+
+        List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+        for (int i = 0; i < 8; i++) {
+            results.add(this.service.submit(i == 3 ? badInstance : this.data.instance(i)));
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            if (i == 3) {
+                try {
+                    results.get(i).get();
+                    fail("Instance should not be classified");
+                } catch (ExecutionException e) {
+                    // Expected
+                }
+            } else {
+                double[] expected = failingCascade.distributionForInstance(this.data.instance(i));
+                assertArrayEquals(expected, results.get(i).get());
+            }
+        }
+        assertEquals(1, this.service.getNumBatches());
+    }
+
+    public void testFullQueueRejectsInstances() throws Exception {
+        startBlockedService(2);
+
+        this.service.submit(this.data.instance(1));
+        this.service.submit(this.data.instance(2));
+        try {
+            this.service.submit(this.data.instance(3));
+            fail("Instance should be rejected");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+
+        assertEquals(3, this.service.getNumAccepted());
+        assertEquals(1, this.service.getNumRejected());
+    }
+
+    public void testSubmitWaitsForFreePlaceInQueue() throws Exception {
+        startBlockedService(1);
+        this.service.submit(this.data.instance(1));
+
+        long start = System.nanoTime();
+        try {
+            this.service.submit(this.data.instance(2), 50, TimeUnit.MILLISECONDS);
+            fail("Instance should be rejected");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        // Instance is accepted if a place in the queue is freed before the timeout
+        this.blockingCascade.released.countDown();
+        Future<double[]> result = this.service.submit(this.data.instance(2), 10, TimeUnit.SECONDS);
+        assertNotNull(result.get());
+        assertEquals(1, this.service.getNumRejected());
+    }
+
+    public void testInstancesWaitingTooLongAreShed() throws Exception {
+        startBlockedService(10);
+        // Set after the first instance is dispatched, so only the next one can be shed
+        this.service.setMaxQueueTime(10);
+        Future<double[]> result = this.service.submit(this.data.instance(1));
+
+        Thread.sleep(50);
+        this.blockingCascade.released.countDown();
+
+        try {
+            result.get();
+            fail("Instance should be shed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(1, this.service.getNumShed());
+    }
+
+    public void testBatchIsDispatchedWhenFull() throws Exception {
+        // Only full batches are dispatched during the test
+        this.service.setMaxBatchDelay(10000);
+        this.service.start();
+
+        List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+        for (int i = 0; i < 16; i++) {
+            results.add(this.service.submit(this.data.instance(i)));
+        }
+        for (Future<double[]> result : results) {
+            assertNotNull(result.get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(2, this.service.getNumBatches());
+    }
+
+    public void testBatchIsDispatchedAfterDelay() throws Exception {
+        this.service.setMaxBatchSize(100);
+        this.service.setMaxBatchDelay(20);
+        this.service.start();
+
+        Future<double[]> result = this.service.submit(this.data.instance(0));
+
+        assertNotNull(result.get(10, TimeUnit.SECONDS));
+        assertEquals(1, this.service.getNumBatches());
+    }
+
+    public void testSocketClient() throws Exception {
+        this.service.start();
+        CascadeScoringServer server = new CascadeScoringServer(this.service, this.data);
+        server.start(0);
+
+        SocketScoringClient client = new SocketScoringClient("localhost", server.getPort());
+        try {
+            for (int i = 0; i < 10; i++) {
+                double[] expected = this.cascade.distributionForInstance(this.data.instance(i));
+                assertArrayEquals(expected, client.score(this.data.instance(i)));
+            }
+        } finally {
+            client.close();
+            server.stop();
+        }
+    }
+
+    public void testStoppedServerClosesConnections() throws Exception {
+        this.service.start();
+        CascadeScoringServer server = new CascadeScoringServer(this.service, this.data);
+        server.start(0);
+
+        SocketScoringClient client = new SocketScoringClient("localhost", server.getPort());
+        client.score(this.data.instance(0));
+        server.stop();
+
+        try {
+            client.score(this.data.instance(0));
+            fail("Connection should be closed");
+        } catch (Exception e) {
+            // Expected
+        } finally {
+            client.close();
+        }
+    }
+
+    public void testSubmitToStoppedServiceIsRejected() throws Exception {
+        try {
+            this.service.submit(this.data.instance(0));
+            fail("Instance should be rejected");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Start a service with batches of one instance whose dispatcher is blocked
+     * in classification of the first instance until the cascade is released.
+     * @param queueCapacity - capacity of the queue
+     */
+    private void startBlockedService(int queueCapacity) throws Exception {
+        this.blockingCascade = new BlockingCascade();
+        this.blockingCascade.buildClassifier(this.data);
+        this.service = new CascadeScoringService(this.blockingCascade);
+        this.service.setMaxBatchSize(1);
+        this.service.setQueueCapacity(queueCapacity);
+        this.service.start();
+
+        this.service.submit(this.data.instance(0));
+        this.blockingCascade.started.await();
+    }
+
+    private void assertArrayEquals(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 1e-12);
+        }
+    }
+
+    /**
+     * Cascade that fails to classify instances with zero weight.
+     */
+    private static class FailingCascade extends MultiStageCascading {
+
+        @Override
+        public double[][] distributionsForInstances(Instance[] instances) throws Exception {
+            for (Instance instance : instances) {
+                if (instance.weight() == 0) {
+                    throw new Exception("Instance can not be classified");
+                }
+            }
+            return super.distributionsForInstances(instances);
+        }
+    }
+
+    /**
+     * Cascade that does not classify instances until it is released.
+     */
+    private static class BlockingCascade extends MultiStageCascading {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public double[][] distributionsForInstances(Instance[] instances) throws Exception {
+            this.started.countDown();
+            this.released.await();
+            return super.distributionsForInstances(instances);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(CascadeScoringServiceTest.class);
+    }
+}
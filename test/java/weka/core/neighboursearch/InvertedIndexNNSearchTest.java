@@ -0,0 +1,188 @@
+/*
+ *This file is part of MultiStageCascading for Weka.
+ * Foobar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MultiStageCascading for Weka is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MultiStageCascading for Weka.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package weka.core.neighboursearch;
+
+import java.util.Random;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.lazy.IBk;
+import weka.core.Attribute;
+import weka.core.EuclideanDistance;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ *
+ * @author Ivan Mushketyk <ivan.mushketik at gmail.com>
+ */
+public class InvertedIndexNNSearchTest extends TestCase {
+
+    private static final int NUM_ATTRIBUTES = 200;
+
+    public InvertedIndexNNSearchTest(String name) { super(name); }
+
+    public void testDistancesAreEqualToLinearSearch() throws Exception {
+        Instances train = generateInstances(300, new Random(1));
+        Instances test = generateInstances(50, new Random(2));
+
+        InvertedIndexNNSearch invertedIndex = new InvertedIndexNNSearch(train);
+        LinearNNSearch linear = new LinearNNSearch(train);
+
+        for (int i = 0; i < test.numInstances(); i++) {
+            Instance target = test.instance(i);
+            Instances expectedNeighbours = linear.kNearestNeighbours(target, 5);
+            Instances actualNeighbours = invertedIndex.kNearestNeighbours(target, 5);
+
+            // Instances tied with the 5th neighbour are returned as well
+            assertEquals(expectedNeighbours.numInstances(), actualNeighbours.numInstances());
+
+            double[] expected = linear.getDistances();
+            double[] actual = invertedIndex.getDistances();
+            assertEquals(expected.length, actual.length);
+            for (int k = 0; k < actual.length; k++) {
+                assertEquals(expected[k], actual[k], 1e-9);
+            }
+        }
+    }
+
+    public void testIBkDistributionsAreEqualToLinearSearch() throws Exception {
+        Instances train = generateInstances(500, new Random(6));
+        Instances test = generateInstances(300, new Random(7));
+
+        for (int k : new int[] {1, 3, 5}) {
+            IBk linear = new IBk(k);
+            linear.buildClassifier(train);
+            IBk invertedIndex = new IBk(k);
+            invertedIndex.setNearestNeighbourSearchAlgorithm(new InvertedIndexNNSearch());
+            invertedIndex.buildClassifier(train);
+
+            for (int i = 0; i < test.numInstances(); i++) {
+                double[] expected = linear.distributionForInstance(test.instance(i));
+                double[] actual = invertedIndex.distributionForInstance(test.instance(i));
+                for (int c = 0; c < expected.length; c++) {
+                    assertEquals("k = " + k + ", instance " + i, expected[c], actual[c], 1e-12);
+                }
+            }
+        }
+    }
+
+    public void testUpdateAddsInstanceToIndex() throws Exception {
+        Instances train = generateInstances(20, new Random(3));
+        InvertedIndexNNSearch invertedIndex = new InvertedIndexNNSearch(train);
+
+        Instance target = generateInstances(1, new Random(4)).instance(0);
+        train.add(target);
+        invertedIndex.update(train.instance(train.numInstances() - 1));
+
+        invertedIndex.kNearestNeighbours(target, 1);
+        assertEquals(0, invertedIndex.getDistances()[0], 1e-9);
+    }
+
+    public void testMoreNeighboursThanInstances() throws Exception {
+        Instances train = generateInstances(3, new Random(5));
+        InvertedIndexNNSearch invertedIndex = new InvertedIndexNNSearch(train);
+
+        // Target is not in the index, so it can not be skipped as its own neighbour
+        Instance target = generateInstances(1, new Random(8)).instance(0);
+        Instances neighbours = invertedIndex.kNearestNeighbours(target, 10);
+        assertEquals(3, neighbours.numInstances());
+    }
+
+    public void testSkipIdenticalIsEqualToLinearSearch() throws Exception {
+        Instances train = generateInstances(100, new Random(9));
+
+        InvertedIndexNNSearch invertedIndex = new InvertedIndexNNSearch();
+        invertedIndex.setSkipIdentical(true);
+        invertedIndex.setInstances(train);
+        LinearNNSearch linear = new LinearNNSearch();
+        linear.setSkipIdentical(true);
+        linear.setInstances(train);
+
+        // Copies of training instances are not skipped as targets, but as identical instances
+        for (int i = 0; i < 20; i++) {
+            Instance target = (Instance) train.instance(i).copy();
+            assertSameNeighbours(linear, invertedIndex, target, 3);
+            assertTrue(invertedIndex.getDistances()[0] > 0);
+        }
+    }
+
+    public void testAttributeRangeIsEqualToLinearSearch() throws Exception {
+        Instances train = generateInstances(100, new Random(10));
+        Instances test = generateInstances(20, new Random(11));
+
+        InvertedIndexNNSearch invertedIndex = new InvertedIndexNNSearch();
+        EuclideanDistance indexDistance = new EuclideanDistance();
+        indexDistance.setAttributeIndices("1-50");
+        invertedIndex.setDistanceFunction(indexDistance);
+        invertedIndex.setInstances(train);
+
+        LinearNNSearch linear = new LinearNNSearch();
+        EuclideanDistance linearDistance = new EuclideanDistance();
+        linearDistance.setAttributeIndices("1-50");
+        linear.setDistanceFunction(linearDistance);
+        linear.setInstances(train);
+
+        for (int i = 0; i < test.numInstances(); i++) {
+            assertSameNeighbours(linear, invertedIndex, test.instance(i), 3);
+        }
+    }
+
+    private void assertSameNeighbours(LinearNNSearch linear, InvertedIndexNNSearch invertedIndex,
+            Instance target, int k) throws Exception {
+        Instances expectedNeighbours = linear.kNearestNeighbours(target, k);
+        Instances actualNeighbours = invertedIndex.kNearestNeighbours(target, k);
+        assertEquals(expectedNeighbours.numInstances(), actualNeighbours.numInstances());
+
+        double[] expected = linear.getDistances();
+        double[] actual = invertedIndex.getDistances();
+        assertEquals(expected.length, actual.length);
+        for (int n = 0; n < actual.length; n++) {
+            assertEquals(expected[n], actual[n], 1e-9);
+        }
+    }
+
+    private Instances generateInstances(int numInstances, Random random) {
+        FastVector attributes = new FastVector(NUM_ATTRIBUTES + 1);
+        for (int i = 0; i < NUM_ATTRIBUTES; i++) {
+            attributes.addElement(new Attribute("a" + i));
+        }
+        FastVector classValues = new FastVector(2);
+        classValues.addElement("yes");
+        classValues.addElement("no");
+        attributes.addElement(new Attribute("class", classValues));
+
+        Instances instances = new Instances("test", attributes, numInstances);
+        instances.setClassIndex(NUM_ATTRIBUTES);
+
+        for (int i = 0; i < numInstances; i++) {
+            double[] values = new double[NUM_ATTRIBUTES + 1];
+            for (int v = 0; v < 10; v++) {
+                values[random.nextInt(NUM_ATTRIBUTES)] = 1 + random.nextInt(5);
+            }
+            values[NUM_ATTRIBUTES] = random.nextInt(2);
+            instances.add(new SparseInstance(1, values));
+        }
+
+        return instances;
+    }
+
+    public static Test suite() {
+        return new TestSuite(InvertedIndexNNSearchTest.class);
+    }
+}